@@ -0,0 +1,79 @@
+package com.example.idempotency.idempotency_service.benchmarks;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.dtos.PaymentDto;
+import com.example.idempotency.idempotency_service.stores.IdempotencyRecordCodec;
+import com.example.idempotency.idempotency_service.stores.IdempotencyStore;
+import com.example.idempotency.idempotency_service.stores.InMemoryIdempotencyStore;
+import com.example.idempotency.idempotency_service.stores.JdbcIdempotencyStore;
+import com.example.idempotency.idempotency_service.stores.JournalIdempotencyStore;
+import com.example.idempotency.idempotency_service.stores.OffHeapIdempotencyStore;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+/** Stores and payloads shared by the benchmarks. */
+final class BenchmarkFixtures {
+
+  private BenchmarkFixtures() {}
+
+  /** Builds a store of the given type; journal files go under {@code scratch}. */
+  static IdempotencyStore newStore(IdempotencyProperties.StoreType type, Path scratch) {
+    IdempotencyProperties.Store properties = new IdempotencyProperties().getStore();
+    return switch (type) {
+      case MEMORY -> new InMemoryIdempotencyStore(properties.getMemory());
+      case OFF_HEAP -> {
+        // Keep the direct memory a benchmark fork reserves modest
+        properties.getOffHeap().setSegmentCount(4);
+        yield new OffHeapIdempotencyStore(new IdempotencyRecordCodec(), properties.getOffHeap());
+      }
+      case JOURNAL -> {
+        properties.getJournal().setDirectory(scratch.resolve("journal"));
+        yield new JournalIdempotencyStore(new IdempotencyRecordCodec(), properties.getJournal());
+      }
+      case JDBC ->
+          new JdbcIdempotencyStore(
+              new JdbcTemplate(
+                  new EmbeddedDatabaseBuilder()
+                      .setType(EmbeddedDatabaseType.H2)
+                      .generateUniqueName(true)
+                      .build()),
+              new IdempotencyRecordCodec(),
+              properties.getJdbc());
+    };
+  }
+
+  /** A request body of {@code items} payments, roughly 100 bytes of JSON each. */
+  static List<PaymentDto> payload(int items, long seed) {
+    return IntStream.range(0, items)
+        .mapToObj(
+            i ->
+                PaymentDto.builder()
+                    .id(new UUID(seed, i))
+                    .amount(BigDecimal.valueOf(seed * 100 + i, 2))
+                    .currency("EUR")
+                    .build())
+        .toList();
+  }
+
+  static Path scratchDirectory() throws IOException {
+    return Files.createTempDirectory("idempotency-bench");
+  }
+
+  static void deleteRecursively(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.example.idempotency.idempotency_service.benchmarks;
+
+import com.example.idempotency.idempotency_service.common.ErrorResponses;
+import com.example.idempotency.idempotency_service.common.IdempotencyAspect;
+import com.example.idempotency.idempotency_service.common.IdempotencyMetrics;
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.common.Idempotent;
+import com.example.idempotency.idempotency_service.common.IdempotentEndpointRegistry;
+import com.example.idempotency.idempotency_service.common.RequestFingerprinter;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.dtos.PaymentDto;
+import com.example.idempotency.idempotency_service.services.IdempotencyService;
+import com.example.idempotency.idempotency_service.stores.IdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * The full {@code @Idempotent} advice, called through a Spring AOP proxy as a controller would be:
+ * a first-seen key that executes and stores, a retry that replays, and a reused key with a
+ * different body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdempotencyAspectBenchmark {
+
+  private static final String REPLAY_KEY = "replay";
+  private static final String CONFLICT_KEY = "conflict";
+
+  @Param({"MEMORY", "OFF_HEAP"})
+  private IdempotencyProperties.StoreType storeType;
+
+  @Param({"1", "16", "256"})
+  private int payloadItems;
+
+  private Path scratch;
+  private IdempotencyStore store;
+  private IdempotencyService service;
+  private PaymentEndpoint endpoint;
+  private List<PaymentDto> payload;
+
+  @Setup
+  public void setUp() throws IOException {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    ObjectMapper objectMapper = new ObjectMapper();
+    scratch = BenchmarkFixtures.scratchDirectory();
+    store = BenchmarkFixtures.newStore(storeType, scratch);
+    IdempotencyMetrics metrics =
+        new IdempotencyMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP);
+    service = new IdempotencyService(store, objectMapper, properties, metrics);
+    AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new PaymentEndpoint());
+    proxyFactory.setProxyTargetClass(true);
+    proxyFactory.addAspect(
+        new IdempotencyAspect(
+            service,
+            new RequestFingerprinter(objectMapper, properties),
+            properties,
+            metrics,
+            TransactionOperations.withoutTransaction(),
+            new IdempotentEndpointRegistry(properties),
+            new ErrorResponses(properties)));
+    endpoint = proxyFactory.getProxy();
+    payload = BenchmarkFixtures.payload(payloadItems, 1);
+
+    KeyedRequest request = new KeyedRequest();
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    try {
+      request.key = REPLAY_KEY;
+      endpoint.create(payload);
+      request.key = CONFLICT_KEY;
+      endpoint.create(BenchmarkFixtures.payload(payloadItems, 2));
+    } finally {
+      RequestContextHolder.resetRequestAttributes();
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    service.close();
+    store.close();
+    BenchmarkFixtures.deleteRecursively(scratch);
+  }
+
+  /** The request each benchmark thread is bound to while it calls the proxy. */
+  @State(Scope.Thread)
+  public static class RequestState {
+
+    private final String prefix = UUID.randomUUID() + "-";
+    private KeyedRequest request;
+    private long sequence;
+
+    @Setup
+    public void bind() {
+      request = new KeyedRequest();
+      RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @TearDown
+    public void unbind() {
+      RequestContextHolder.resetRequestAttributes();
+    }
+  }
+
+  @Benchmark
+  public Object firstSeen(RequestState state) {
+    state.request.key = state.prefix + state.sequence++;
+    return endpoint.create(payload);
+  }
+
+  @Benchmark
+  public Object replay(RequestState state) {
+    state.request.key = REPLAY_KEY;
+    return endpoint.create(payload);
+  }
+
+  @Benchmark
+  public Object conflict(RequestState state) {
+    state.request.key = CONFLICT_KEY;
+    try {
+      return endpoint.create(payload);
+    } catch (IdempotancyException ex) {
+      return ex;
+    }
+  }
+
+  public static class PaymentEndpoint {
+
+    @Idempotent
+    public ResponseEntity<List<PaymentDto>> create(List<PaymentDto> payments) {
+      return ResponseEntity.status(201).body(payments);
+    }
+  }
+
+  // A POST whose Idempotency-Key can be swapped without allocating a new request
+  private static final class KeyedRequest extends HttpServletRequestWrapper {
+
+    private String key;
+
+    KeyedRequest() {
+      super(new MockHttpServletRequest("POST", "/api/payments"));
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return IdempotencyAspect.IDEMPOTENCY_HEADER_KEY.equalsIgnoreCase(name)
+          ? key
+          : super.getHeader(name);
+    }
+  }
+}
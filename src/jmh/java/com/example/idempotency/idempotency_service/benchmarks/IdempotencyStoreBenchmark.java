@@ -0,0 +1,126 @@
+package com.example.idempotency.idempotency_service.benchmarks;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyMetrics;
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import com.example.idempotency.idempotency_service.services.IdempotencyService;
+import com.example.idempotency.idempotency_service.stores.IdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.http.ResponseEntity;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * {@link IdempotencyService} lookups and response writes against each store implementation.
+ *
+ * <p>{@link #main} sweeps the thread count from 1 to 64, which plain JMH options cannot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IdempotencyStoreBenchmark {
+
+  private static final String ENDPOINT = "POST /api/payments";
+  private static final int KEYS = 10_000;
+  private static final Duration TTL = Duration.ofHours(24);
+  private static final int[] THREADS = {1, 4, 16, 64};
+
+  @Param({"MEMORY", "OFF_HEAP", "JOURNAL", "JDBC"})
+  private IdempotencyProperties.StoreType storeType;
+
+  @Param({"1", "16", "256"})
+  private int payloadItems;
+
+  private Path scratch;
+  private IdempotencyStore store;
+  private IdempotencyService service;
+  private ResponseEntity<?> response;
+  private IdempotencyCacheKey[] keys;
+
+  @Setup
+  public void setUp() throws IOException {
+    scratch = BenchmarkFixtures.scratchDirectory();
+    store = BenchmarkFixtures.newStore(storeType, scratch);
+    service =
+        new IdempotencyService(
+            store,
+            new ObjectMapper(),
+            new IdempotencyProperties(),
+            new IdempotencyMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP));
+    response = ResponseEntity.status(201).body(BenchmarkFixtures.payload(payloadItems, 1));
+    keys = new IdempotencyCacheKey[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = IdempotencyCacheKey.of(ENDPOINT, new UUID(0, i).toString());
+      service.putResponse(keys[i], response, new RequestFingerprint(i, i), TTL);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    service.close();
+    store.close();
+    BenchmarkFixtures.deleteRecursively(scratch);
+  }
+
+  @State(Scope.Thread)
+  public static class Writer {
+
+    private final long writer = ThreadLocalRandom.current().nextLong();
+    private long sequence;
+
+    IdempotencyCacheKey nextKey() {
+      return IdempotencyCacheKey.of(ENDPOINT, new UUID(writer, sequence++).toString());
+    }
+  }
+
+  @Benchmark
+  public IdempotencyModel get() {
+    return service.getCachedResponse(keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+  }
+
+  @Benchmark
+  public IdempotencyModel put(Writer writer) {
+    return service.putResponse(writer.nextKey(), response, new RequestFingerprint(1, 1), TTL);
+  }
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    for (int threads : THREADS) {
+      new Runner(
+              new OptionsBuilder()
+                  .parent(commandLine)
+                  .include(IdempotencyStoreBenchmark.class.getSimpleName())
+                  .threads(threads)
+                  .build())
+          .run();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.example.idempotency.idempotency_service.benchmarks;
+
+import com.example.idempotency.idempotency_service.IdempotencyServiceApplication;
+import com.example.idempotency.idempotency_service.common.IdempotencyAspect;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * End-to-end load on the payment API over HTTP, with requests served by Tomcat's platform-thread
+ * pool or by virtual threads. Sample mode reports p99 alongside throughput.
+ *
+ * <p>{@code duplicated} sends every key twice, so retries block in the idempotency advice while the
+ * first execution is still running, the way real client retries do. Client threads outnumber {@code
+ * tomcatMaxThreads}, so the platform pool is saturated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(256)
+@Fork(1)
+public class PaymentApiLoadBenchmark {
+
+  private static final String BODY = "{\"amount\":10.00,\"currency\":\"EUR\"}";
+
+  @Param({"false", "true"})
+  private boolean virtualThreads;
+
+  @Param({"64"})
+  private int tomcatMaxThreads;
+
+  private ConfigurableApplicationContext context;
+  private HttpClient client;
+  private URI payments;
+  private final AtomicLong sequence = new AtomicLong();
+
+  @Setup
+  public void setUp() {
+    context =
+        new SpringApplicationBuilder(IdempotencyServiceApplication.class)
+            .properties(
+                "server.port=0",
+                "spring.devtools.restart.enabled=false",
+                "spring.threads.virtual.enabled=" + virtualThreads,
+                "server.tomcat.threads.max=" + tomcatMaxThreads,
+                "logging.level.root=WARN")
+            .run();
+    int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+    payments = URI.create("http://localhost:" + port + "/api/payments");
+    client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    client.close();
+    context.close();
+  }
+
+  @Benchmark
+  public int firstSeen() throws IOException, InterruptedException {
+    return post(Long.toString(sequence.getAndIncrement()));
+  }
+
+  @Benchmark
+  public int duplicated() throws IOException, InterruptedException {
+    // Consecutive requests share a key, so the second one usually lands while the first executes
+    return post(Long.toString(sequence.getAndIncrement() >>> 1));
+  }
+
+  private int post(String key) throws IOException, InterruptedException {
+    HttpRequest request =
+        HttpRequest.newBuilder(payments)
+            .header("Content-Type", "application/json")
+            .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, key)
+            .POST(HttpRequest.BodyPublishers.ofString(BODY))
+            .build();
+    return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+  }
+}
@@ -0,0 +1,50 @@
+package com.example.idempotency.idempotency_service.benchmarks;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.common.RequestFingerprinter;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tools.jackson.databind.ObjectMapper;
+
+/** Serializing and hashing the advised method's arguments, the first step of every request. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestFingerprinterBenchmark {
+
+  @Param({"SHA_256", "MURMUR3_128"})
+  private IdempotencyProperties.FingerprintAlgorithm algorithm;
+
+  @Param({"1", "16", "256"})
+  private int payloadItems;
+
+  private RequestFingerprinter fingerprinter;
+  private Object[] args;
+
+  @Setup
+  public void setUp() {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    properties.getFingerprint().setAlgorithm(algorithm);
+    fingerprinter = new RequestFingerprinter(new ObjectMapper(), properties);
+    args = new Object[] {BenchmarkFixtures.payload(payloadItems, 1)};
+  }
+
+  @Benchmark
+  public RequestFingerprint fingerprint() {
+    return fingerprinter.fingerprint(args);
+  }
+}
@@ -0,0 +1,126 @@
+package com.example.idempotency.idempotency_service.benchmarks;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import com.example.idempotency.idempotency_service.stores.IdempotencyStore;
+import com.example.idempotency.idempotency_service.stores.InMemoryIdempotencyStore;
+import com.example.idempotency.idempotency_service.stores.ShardedIdempotencyStore;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Scalability of the in-memory store with and without shards, under the mix a busy endpoint sees:
+ * mostly first-time reservations and their responses, with some retries reading them back.
+ *
+ * <p>{@link #main} sweeps the thread count from 1 to 64; with enough cores the sharded store's
+ * throughput should grow close to linearly while the single store flattens out on its lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedStoreBenchmark {
+
+  private static final String ENDPOINT = "POST /api/payments";
+  private static final int KEYS = 100_000;
+  private static final Duration TTL = Duration.ofHours(24);
+  private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+  // 1 is the plain store
+  @Param({"1", "16", "64"})
+  private int shards;
+
+  private IdempotencyStore store;
+  private IdempotencyModel pending;
+  private IdempotencyModel completed;
+  private IdempotencyCacheKey[] keys;
+
+  @Setup
+  public void setUp() {
+    IdempotencyProperties.Memory properties = new IdempotencyProperties.Memory();
+    properties.setMaximumSize(1_000_000);
+    properties.setShards(shards);
+    store =
+        shards > 1
+            ? new ShardedIdempotencyStore(properties)
+            : new InMemoryIdempotencyStore(properties);
+    pending = IdempotencyModel.pending(new RequestFingerprint(1, 1));
+    completed =
+        IdempotencyModel.builder()
+            .requestHash(new RequestFingerprint(1, 1))
+            .status(201)
+            .headers(new byte[] {0, 0})
+            .body(new byte[128])
+            .build();
+    keys = new IdempotencyCacheKey[KEYS];
+    for (int i = 0; i < KEYS; i++) {
+      keys[i] = IdempotencyCacheKey.of(ENDPOINT, new UUID(0, i).toString());
+      store.put(keys[i], completed, TTL);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    store.close();
+  }
+
+  @State(Scope.Thread)
+  public static class Writer {
+
+    private final long writer = ThreadLocalRandom.current().nextLong();
+    private long sequence;
+
+    IdempotencyCacheKey nextKey() {
+      return IdempotencyCacheKey.of(ENDPOINT, new UUID(writer, sequence++).toString());
+    }
+  }
+
+  @Benchmark
+  public IdempotencyModel reserveAndComplete(Writer writer) {
+    IdempotencyCacheKey key = writer.nextKey();
+    IdempotencyModel existing = store.putIfAbsent(key, pending, TTL);
+    store.put(key, completed, TTL);
+    return existing;
+  }
+
+  @Benchmark
+  public IdempotencyModel replay() {
+    return store.get(keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+  }
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    for (int threads : THREADS) {
+      new Runner(
+              new OptionsBuilder()
+                  .parent(commandLine)
+                  .include(ShardedStoreBenchmark.class.getSimpleName())
+                  .threads(threads)
+                  .build())
+          .run();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.example.idempotency.idempotency_service.benchmarks;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import com.example.idempotency.idempotency_service.stores.InMemoryIdempotencyStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Time to write an in-memory store's snapshot on shutdown and to load it back on startup, with
+ * millions of payment-sized responses. Each measurement is one whole write or load; both should
+ * take seconds at most.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SnapshotBenchmark {
+
+  private static final String ENDPOINT = "POST /api/payments";
+  private static final Duration TTL = Duration.ofHours(24);
+
+  @Param({"1000000", "3000000"})
+  private int entries;
+
+  private Path directory;
+  private IdempotencyProperties.Memory properties;
+  private InMemoryIdempotencyStore populated;
+  private InMemoryIdempotencyStore loaded;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("idempotency-snapshot");
+    properties = new IdempotencyProperties.Memory();
+    properties.setMaximumSize(entries);
+    properties.setMaximumWeight(DataSize.ofGigabytes(4));
+    properties.setSnapshot(directory.resolve("snapshot.bin"));
+    populated = new InMemoryIdempotencyStore(properties);
+    IdempotencyModel response =
+        IdempotencyModel.builder()
+            .requestHash(new RequestFingerprint(1, 1))
+            .status(200)
+            .headers(new byte[] {0, 0})
+            .body(new byte[96])
+            .build();
+    for (int i = 0; i < entries; i++) {
+      populated.put(IdempotencyCacheKey.of(ENDPOINT, new UUID(i, i).toString()), response, TTL);
+    }
+    populated.close();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    try (var files = Files.list(directory)) {
+      for (Path file : files.toList()) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+
+  @TearDown(Level.Invocation)
+  public void releaseLoaded() {
+    // Closing writes the snapshot back, outside the measured load
+    if (loaded != null) {
+      loaded.close();
+      loaded = null;
+    }
+  }
+
+  @Benchmark
+  public long write() {
+    populated.close();
+    return populated.size();
+  }
+
+  @Benchmark
+  public long load() {
+    loaded = new InMemoryIdempotencyStore(properties);
+    return loaded.size();
+  }
+}
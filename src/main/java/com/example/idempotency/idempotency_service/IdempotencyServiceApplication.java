@@ -2,8 +2,10 @@ package com.example.idempotency.idempotency_service;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class IdempotencyServiceApplication {
 
   public static void main(String[] args) {
@@ -0,0 +1,71 @@
+package com.example.idempotency.idempotency_service.common;
+
+import com.example.idempotency.idempotency_service.dtos.MessageDto;
+import java.time.Duration;
+import java.time.Instant;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.ErrorResponse;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Error responses and which of them idempotent endpoints store. The error handler and both
+ * enforcement points build their {@link MessageDto} here, so a stored error replays exactly as the
+ * first request received it.
+ */
+@Component
+public class ErrorResponses {
+
+  private final IdempotencyProperties.Errors policy;
+
+  public ErrorResponses(IdempotencyProperties properties) {
+    this.policy = properties.getErrors();
+  }
+
+  public static MessageDto body(HttpStatus status, String message, String path) {
+    return MessageDto.builder()
+        .timestamp(Instant.now())
+        .status(status.value())
+        .error(status.getReasonPhrase())
+        .message(message)
+        .path(path)
+        .build();
+  }
+
+  /** Status an exception is answered with: as declared by it, or 500. */
+  public static HttpStatus statusOf(Throwable ex) {
+    if (ex instanceof ErrorResponse errorResponse) {
+      return HttpStatus.valueOf(errorResponse.getStatusCode().value());
+    }
+    ResponseStatus status =
+        AnnotatedElementUtils.findMergedAnnotation(ex.getClass(), ResponseStatus.class);
+    return status != null ? status.code() : HttpStatus.INTERNAL_SERVER_ERROR;
+  }
+
+  /**
+   * Response to store for a failed handler, or null when the policy does not store its error: the
+   * exception has to be of a configured type and answered with a configured status.
+   */
+  public ResponseEntity<MessageDto> stored(Throwable ex, String path) {
+    if (!policy.isEnabled()
+        || policy.getExceptions().stream().noneMatch(type -> type.isInstance(ex))) {
+      return null;
+    }
+    HttpStatus status = statusOf(ex);
+    return stores(status.value())
+        ? ResponseEntity.status(status).body(body(status, ex.getMessage(), path))
+        : null;
+  }
+
+  /** Whether a response with {@code status} is stored as an error outcome. */
+  public boolean stores(int status) {
+    return policy.isEnabled() && policy.getStatuses().contains(status);
+  }
+
+  /** How long an error is replayed for, never longer than a success on the same endpoint. */
+  public Duration ttl(IdempotentEndpoint endpoint) {
+    return policy.getTtl().compareTo(endpoint.ttl()) < 0 ? policy.getTtl() : endpoint.ttl();
+  }
+}
@@ -2,23 +2,29 @@ package com.example.idempotency.idempotency_service.common;
 
 import ch.qos.logback.core.util.StringUtil;
 import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotencyInFlightException;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
 import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
 import com.example.idempotency.idempotency_service.services.IdempotencyService;
+import io.micrometer.observation.Observation;
 import jakarta.servlet.http.HttpServletRequest;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.springframework.http.HttpMethod;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
-import tools.jackson.databind.ObjectMapper;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 
 @Aspect
 @Component
@@ -26,46 +32,253 @@ public class IdempotencyAspect {
 
   public static final String IDEMPOTENCY_HEADER_KEY = "Idempotency-Key";
 
+  // Returned by execute when the request was parked, its observation then stops on completion
+  private static final Object PARKED = new Object();
+
   private final IdempotencyService idempotencyService;
-  private final ObjectMapper objectMapper;
+  private final RequestFingerprinter fingerprinter;
+  private final IdempotencyProperties properties;
+  private final IdempotencyMetrics metrics;
+  private final TransactionOperations transactions;
+  private final IdempotentEndpointRegistry endpoints;
+  private final ErrorResponses errorResponses;
 
-  public IdempotencyAspect(IdempotencyService idempotencyService, ObjectMapper objectMapper) {
+  public IdempotencyAspect(
+      IdempotencyService idempotencyService,
+      RequestFingerprinter fingerprinter,
+      IdempotencyProperties properties,
+      IdempotencyMetrics metrics,
+      TransactionOperations transactionOperations,
+      IdempotentEndpointRegistry endpoints,
+      ErrorResponses errorResponses) {
     this.idempotencyService = idempotencyService;
-    this.objectMapper = objectMapper;
+    this.fingerprinter = fingerprinter;
+    this.properties = properties;
+    this.metrics = metrics;
+    this.transactions =
+        properties.usesBusinessTransaction()
+            ? transactionOperations
+            : TransactionOperations.withoutTransaction();
+    this.endpoints = endpoints;
+    this.errorResponses = errorResponses;
   }
 
   @Around("@annotation(com.example.idempotency.idempotency_service.common.Idempotent)")
   public Object applyIdempotency(ProceedingJoinPoint joinPoint) throws Throwable {
     HttpServletRequest request = currentRequest();
-    if (request != null) {
-      // Only POST and PATCH are idempotent
-      if (!HttpMethod.POST.matches(request.getMethod())
-          && !HttpMethod.PATCH.matches(request.getMethod())) {
+    if (request == null || request.getAttribute(IdempotencyFilter.APPLIED) != null) {
+      // Not a web request, or the filter has already taken care of it
+      return joinPoint.proceed();
+    }
+    IdempotentEndpoint idempotent =
+        endpoints.get(((MethodSignature) joinPoint.getSignature()).getMethod());
+    if (!idempotent.handles(request.getMethod())) {
+      return joinPoint.proceed();
+    }
+    String idempotencyKey = request.getHeader(idempotent.header());
+    if (StringUtil.isNullOrEmpty(idempotencyKey)) {
+      if (!idempotent.required()) {
         return joinPoint.proceed();
       }
-      String idempotencyKey = request.getHeader(IDEMPOTENCY_HEADER_KEY);
-      if (StringUtil.isNullOrEmpty(idempotencyKey)) {
-        throw new IdempotancyException("No idempotency header found");
+      throw new IdempotancyException("No idempotency header found");
+    }
+    if (idempotencyKey.length() > properties.getMaxKeyLength()) {
+      throw new IdempotancyException(
+          "Idempotency key is longer than " + properties.getMaxKeyLength() + " characters");
+    }
+    IdempotencyCacheKey cacheKey =
+        IdempotencyCacheKey.of(
+            endpoints.endpointId(idempotent, request),
+            IdempotentEndpointRegistry.resource(request),
+            idempotencyKey);
+    IdempotencyMetrics.Endpoint endpoint = metrics.endpoint(request);
+    Observation observation = endpoint.start();
+    boolean parked = false;
+    Observation.Scope scope = observation.openScope();
+    try {
+      Object result = execute(joinPoint, idempotent, cacheKey, endpoint, observation, request);
+      if (result == PARKED) {
+        // Spring MVC writes the response once the deferred result is set
+        parked = true;
+        return null;
+      }
+      return result;
+    } catch (Throwable ex) {
+      observation.error(ex);
+      throw ex;
+    } finally {
+      scope.close();
+      if (!parked) {
+        observation.stop();
+      }
+    }
+  }
+
+  private Object execute(
+      ProceedingJoinPoint joinPoint,
+      IdempotentEndpoint idempotent,
+      IdempotencyCacheKey cacheKey,
+      IdempotencyMetrics.Endpoint endpoint,
+      Observation observation,
+      HttpServletRequest request)
+      throws Throwable {
+    long fingerprintStart = System.nanoTime();
+    RequestFingerprint requestHash =
+        fingerprinter.fingerprint(idempotent.fingerprinted(joinPoint.getArgs(), request));
+    endpoint.recordFingerprint(fingerprintStart);
+    long deadline = System.nanoTime() + properties.getInFlight().getWaitTimeout().toNanos();
+    while (true) {
+      IdempotencyService.Reservation reservation =
+          idempotencyService.reserve(cacheKey, requestHash);
+      if (reservation.acquired()) {
+        endpoint.record(observation, IdempotencyMetrics.Outcome.EXECUTED);
+        return proceedAndStore(
+            joinPoint, idempotent, cacheKey, requestHash, reservation, request.getRequestURI());
+      }
+      IdempotencyModel idempotencyModel = reservation.cached();
+      if (idempotencyModel == null && parks(idempotent, request, deadline)) {
+        ParkedDuplicate duplicate =
+            new ParkedDuplicate(requestHash, endpoint, observation, deadline);
+        WebAsyncUtils.getAsyncManager(request).startDeferredResultProcessing(duplicate.result);
+        duplicate.awaitOn(reservation);
+        return PARKED;
       }
-      String cacheKey = buildCacheKey(request, idempotencyKey);
-      IdempotencyModel idempotencyModel = idempotencyService.getCachedResponse(cacheKey);
-      String requestHash = hash(serializeArgs(joinPoint.getArgs()));
       if (idempotencyModel == null) {
-        Object result = joinPoint.proceed();
-        if (result instanceof ResponseEntity<?> responseEntity) {
-          idempotencyService.putResponse(cacheKey, responseEntity, requestHash);
-        }
-        idempotencyModel = idempotencyService.getCachedResponse(cacheKey);
-      } else if (!idempotencyModel.getRequestHash().equals(requestHash)) {
-        throw new IdempotancyException(
-            "Idempotency key conflict: request data does not match previous request with the same key");
+        idempotencyModel = awaitInFlight(idempotent, reservation, deadline, endpoint, observation);
+      }
+      if (idempotencyModel == null) {
+        // The first execution failed without storing a response, so compete for the key again
+        continue;
       }
+      if (!idempotencyModel.getRequestHash().equals(requestHash)) {
+        endpoint.record(observation, IdempotencyMetrics.Outcome.CONFLICT);
+        throw keyConflict();
+      }
+      endpoint.record(observation, IdempotencyMetrics.Outcome.REPLAYED);
       return idempotencyModel.toResponseEntity();
-    } else {
+    }
+  }
+
+  private Object proceedAndStore(
+      ProceedingJoinPoint joinPoint,
+      IdempotentEndpoint idempotent,
+      IdempotencyCacheKey cacheKey,
+      RequestFingerprint requestHash,
+      IdempotencyService.Reservation reservation,
+      String path)
+      throws Throwable {
+    IdempotencyModel[] stored = new IdempotencyModel[1];
+    RuntimeException[] handlerFailure = new RuntimeException[1];
+    try {
+      // Waiters are only handed the response once the transaction it was stored in committed
+      return transactions.execute(
+          status -> {
+            Object result;
+            try {
+              result = proceed(joinPoint);
+            } catch (RuntimeException ex) {
+              handlerFailure[0] = ex;
+              throw ex;
+            }
+            if (!(result instanceof ResponseEntity<?> responseEntity)) {
+              return result;
+            }
+            // Replay from the stored model rather than re-reading it, the entry may be evicted
+            stored[0] =
+                idempotencyService.putResponse(
+                    cacheKey, responseEntity, requestHash, idempotent.ttl());
+            return stored[0].toResponseEntity();
+          });
+    } catch (Throwable ex) {
+      // The transaction rolled back, so nothing was stored whatever the callback returned
+      stored[0] = null;
+      Throwable failure =
+          ex instanceof UndeclaredThrowableException undeclared
+              ? undeclared.getUndeclaredThrowable()
+              : ex;
+      if (ex == handlerFailure[0]) {
+        // Stored outside the rolled back transaction, the handler wrote nothing to keep it with
+        stored[0] = storeError(idempotent, cacheKey, requestHash, failure, path);
+        if (stored[0] != null) {
+          return stored[0].toResponseEntity();
+        }
+      }
+      throw failure;
+    } finally {
+      idempotencyService.release(cacheKey, reservation, stored[0]);
+    }
+  }
+
+  /** Stores the response a handler failure is answered with, if the error policy keeps it. */
+  private IdempotencyModel storeError(
+      IdempotentEndpoint idempotent,
+      IdempotencyCacheKey cacheKey,
+      RequestFingerprint requestHash,
+      Throwable failure,
+      String path) {
+    ResponseEntity<?> response = errorResponses.stored(failure, path);
+    return response == null
+        ? null
+        : idempotencyService.putResponse(
+            cacheKey, response, requestHash, errorResponses.ttl(idempotent));
+  }
+
+  private static Object proceed(ProceedingJoinPoint joinPoint) {
+    try {
       return joinPoint.proceed();
+    } catch (RuntimeException | Error ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new UndeclaredThrowableException(ex);
     }
   }
 
+  /** Whether a duplicate waits for the in-flight execution without holding its thread. */
+  private boolean parks(IdempotentEndpoint idempotent, HttpServletRequest request, long deadline) {
+    return properties.getInFlight().isAsync()
+        && idempotent.inFlightPolicy() == IdempotencyProperties.InFlightPolicy.WAIT
+        && request.isAsyncSupported()
+        && deadline - System.nanoTime() > 0;
+  }
+
+  private IdempotencyModel awaitInFlight(
+      IdempotentEndpoint idempotent,
+      IdempotencyService.Reservation reservation,
+      long deadline,
+      IdempotencyMetrics.Endpoint endpoint,
+      Observation observation) {
+    long remaining = deadline - System.nanoTime();
+    if (idempotent.inFlightPolicy() == IdempotencyProperties.InFlightPolicy.REJECT
+        || remaining <= 0) {
+      throw inFlightConflict(endpoint, observation);
+    }
+    endpoint.recordInFlightWait();
+    try {
+      return reservation.result().get(remaining, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException ex) {
+      throw inFlightConflict(endpoint, observation);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw inFlightConflict(endpoint, observation);
+    } catch (ExecutionException ex) {
+      // Owners complete with null rather than exceptionally, treat it the same way
+      return null;
+    }
+  }
+
+  private IdempotencyInFlightException inFlightConflict(
+      IdempotencyMetrics.Endpoint endpoint, Observation observation) {
+    endpoint.record(observation, IdempotencyMetrics.Outcome.REJECTED);
+    return new IdempotencyInFlightException(
+        "A request with the same idempotency key is still being processed",
+        properties.getInFlight().getRetryAfter());
+  }
+
+  private static IdempotancyException keyConflict() {
+    return new IdempotancyException(
+        "Idempotency key conflict: request data does not match previous request with the same key");
+  }
+
   private HttpServletRequest currentRequest() {
     RequestAttributes attrs = RequestContextHolder.getRequestAttributes();
     if (!(attrs instanceof ServletRequestAttributes sra)) {
@@ -74,21 +287,52 @@ public class IdempotencyAspect {
     return sra.getRequest();
   }
 
-  private String buildCacheKey(HttpServletRequest request, String idempotencyKey) {
-    return request.getMethod() + ":" + request.getRequestURI() + ":" + idempotencyKey;
-  }
+  /**
+   * A duplicate parked as an async request, completed from the callback of the execution it waits
+   * on rather than by a thread blocked on it. Times out with the same conflict as a blocking wait,
+   * and is sent the same conflict, to be retried, if that execution stored nothing: running the
+   * handler again would take it outside the request it belongs to.
+   */
+  private final class ParkedDuplicate {
 
-  private String serializeArgs(Object[] args) {
-    return objectMapper.writeValueAsString(args);
-  }
+    private final RequestFingerprint requestHash;
+    private final IdempotencyMetrics.Endpoint endpoint;
+    private final Observation observation;
+    private final DeferredResult<Object> result;
 
-  String hash(String input) {
-    try {
-      MessageDigest digest = MessageDigest.getInstance("SHA-256");
-      byte[] bytes = digest.digest(input.getBytes(StandardCharsets.UTF_8));
-      return Base64.getEncoder().encodeToString(bytes);
-    } catch (NoSuchAlgorithmException ex) {
-      throw new IdempotancyException("Request Hash generation failed", ex);
+    private ParkedDuplicate(
+        RequestFingerprint requestHash,
+        IdempotencyMetrics.Endpoint endpoint,
+        Observation observation,
+        long deadline) {
+      this.requestHash = requestHash;
+      this.endpoint = endpoint;
+      this.observation = observation;
+      this.result =
+          new DeferredResult<>(
+              Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+      result.onTimeout(() -> result.setErrorResult(inFlightConflict(endpoint, observation)));
+      result.onCompletion(observation::stop);
+      endpoint.recordInFlightWait();
+    }
+
+    private void awaitOn(IdempotencyService.Reservation reservation) {
+      reservation.result().whenComplete((model, ex) -> completed(model));
+    }
+
+    private void completed(IdempotencyModel model) {
+      if (result.isSetOrExpired()) {
+        return;
+      }
+      if (model == null) {
+        result.setErrorResult(inFlightConflict(endpoint, observation));
+      } else if (!model.getRequestHash().equals(requestHash)) {
+        endpoint.record(observation, IdempotencyMetrics.Outcome.CONFLICT);
+        result.setErrorResult(keyConflict());
+      } else {
+        endpoint.record(observation, IdempotencyMetrics.Outcome.REPLAYED);
+        result.setResult(model.toResponseEntity());
+      }
     }
   }
 }
@@ -0,0 +1,538 @@
+package com.example.idempotency.idempotency_service.common;
+
+import ch.qos.logback.core.util.StringUtil;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import com.example.idempotency.idempotency_service.services.IdempotencyService;
+import io.micrometer.observation.Observation;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Enforces idempotency ahead of Spring MVC, when {@code idempotency.enforcement} is {@code FILTER}.
+ *
+ * <p>The request is matched to its handler without being dispatched, and the raw body is hashed as
+ * it is read, so replays and conflicts are answered from the store before anything is deserialized
+ * or bound. A first execution runs the rest of the chain with its response buffered, and a 2xx
+ * response, or an error the {@link ErrorResponses} policy keeps, is stored as the exact bytes sent.
+ * Requests taken over here are marked so the advice leaves them alone, and their keys are stored
+ * apart from the advice's.
+ */
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+  /** Request attribute telling {@link IdempotencyAspect} the filter has handled idempotency. */
+  public static final String APPLIED = IdempotencyFilter.class.getName() + ".APPLIED";
+
+  // Raw bytes never fingerprint the same as the bound arguments the advice hashes, so keys stored
+  // here are kept apart from the advice's rather than answering its requests with a conflict
+  private static final String KEY_PREFIX = "filter ";
+
+  private final IdempotentEndpointRegistry endpoints;
+  private final IdempotencyService idempotencyService;
+  private final RequestFingerprinter fingerprinter;
+  private final IdempotencyProperties properties;
+  private final IdempotencyMetrics metrics;
+  private final ObjectMapper objectMapper;
+  private final ErrorResponses errorResponses;
+  // Endpoint id with the prefix, built once per endpoint rather than per request
+  private final Map<String, String> keyPrefixed = new ConcurrentHashMap<>();
+
+  public IdempotencyFilter(
+      IdempotentEndpointRegistry endpoints,
+      IdempotencyService idempotencyService,
+      RequestFingerprinter fingerprinter,
+      IdempotencyProperties properties,
+      IdempotencyMetrics metrics,
+      ObjectMapper objectMapper,
+      ErrorResponses errorResponses) {
+    this.endpoints = endpoints;
+    this.idempotencyService = idempotencyService;
+    this.fingerprinter = fingerprinter;
+    this.properties = properties;
+    this.metrics = metrics;
+    this.objectMapper = objectMapper;
+    this.errorResponses = errorResponses;
+  }
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+      throws ServletException, IOException {
+    IdempotentEndpoint idempotent = match(request);
+    if (idempotent == null || !idempotent.handles(request.getMethod())) {
+      chain.doFilter(request, response);
+      return;
+    }
+    request.setAttribute(APPLIED, Boolean.TRUE);
+    String idempotencyKey = request.getHeader(idempotent.header());
+    if (StringUtil.isNullOrEmpty(idempotencyKey)) {
+      if (idempotent.required()) {
+        writeError(request, response, HttpStatus.BAD_REQUEST, "No idempotency header found", null);
+      } else {
+        chain.doFilter(request, response);
+      }
+      return;
+    }
+    if (idempotencyKey.length() > properties.getMaxKeyLength()) {
+      writeError(
+          request,
+          response,
+          HttpStatus.BAD_REQUEST,
+          "Idempotency key is longer than " + properties.getMaxKeyLength() + " characters",
+          null);
+      return;
+    }
+    long maxBodySize = properties.getMaxFilterBodySize().toBytes();
+    if (request.getContentLengthLong() > maxBodySize) {
+      writeBodyTooLarge(request, response, maxBodySize);
+      return;
+    }
+    IdempotencyCacheKey cacheKey =
+        IdempotencyCacheKey.of(
+            keyPrefixed.computeIfAbsent(
+                endpoints.endpointId(idempotent, request), id -> KEY_PREFIX + id),
+            IdempotentEndpointRegistry.resource(request),
+            idempotencyKey);
+    IdempotencyMetrics.Endpoint endpoint = metrics.endpoint(request);
+    Observation observation = endpoint.start();
+    boolean parked = false;
+    Observation.Scope scope = observation.openScope();
+    try {
+      // A parked duplicate is answered, and its observation stopped, once the async request ends
+      parked = execute(request, response, chain, idempotent, cacheKey, endpoint, observation);
+    } catch (IOException | ServletException | RuntimeException ex) {
+      observation.error(ex);
+      throw ex;
+    } finally {
+      scope.close();
+      if (!parked) {
+        observation.stop();
+      }
+    }
+  }
+
+  private IdempotentEndpoint match(HttpServletRequest request) throws ServletException {
+    try {
+      return endpoints.match(request);
+    } catch (RuntimeException | ServletException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new ServletException(ex);
+    }
+  }
+
+  private boolean execute(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      FilterChain chain,
+      IdempotentEndpoint idempotent,
+      IdempotencyCacheKey cacheKey,
+      IdempotencyMetrics.Endpoint endpoint,
+      Observation observation)
+      throws ServletException, IOException {
+    long fingerprintStart = System.nanoTime();
+    long maxBodySize = properties.getMaxFilterBodySize().toBytes();
+    ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(request.getContentLength(), 0));
+    RequestFingerprint requestHash;
+    try {
+      requestHash =
+          fingerprinter.fingerprint(
+              RequestFingerprinter.target(request),
+              new LimitedInputStream(request.getInputStream(), maxBodySize),
+              body);
+    } catch (BodyTooLargeException ex) {
+      // Sent without a Content-Length, or with one that understated it
+      writeBodyTooLarge(request, response, maxBodySize);
+      return false;
+    }
+    endpoint.recordFingerprint(fingerprintStart);
+    long deadline = System.nanoTime() + properties.getInFlight().getWaitTimeout().toNanos();
+    while (true) {
+      IdempotencyService.Reservation reservation =
+          idempotencyService.reserve(cacheKey, requestHash);
+      if (reservation.acquired()) {
+        endpoint.record(observation, IdempotencyMetrics.Outcome.EXECUTED);
+        proceedAndStore(
+            new CachedBodyRequest(request, body.toByteArray()),
+            response,
+            chain,
+            idempotent,
+            cacheKey,
+            requestHash,
+            reservation);
+        return false;
+      }
+      IdempotencyModel idempotencyModel = reservation.cached();
+      if (idempotencyModel == null && parks(idempotent, request, deadline)) {
+        new ParkedDuplicate(request, response, requestHash, endpoint, observation, deadline)
+            .awaitOn(reservation);
+        return true;
+      }
+      if (idempotencyModel == null && !inFlightRejected(idempotent, deadline)) {
+        endpoint.recordInFlightWait();
+        idempotencyModel = awaitInFlight(reservation, deadline);
+        if (idempotencyModel == null
+            && deadline - System.nanoTime() > 0
+            && !Thread.currentThread().isInterrupted()) {
+          // The first execution failed without storing a response, so compete for the key again
+          continue;
+        }
+      }
+      answer(request, response, requestHash, idempotencyModel, endpoint, observation);
+      return false;
+    }
+  }
+
+  /** Replays the stored response, or answers with the conflict a duplicate without one gets. */
+  private void answer(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      RequestFingerprint requestHash,
+      IdempotencyModel idempotencyModel,
+      IdempotencyMetrics.Endpoint endpoint,
+      Observation observation)
+      throws IOException {
+    if (idempotencyModel == null) {
+      endpoint.record(observation, IdempotencyMetrics.Outcome.REJECTED);
+      writeError(
+          request,
+          response,
+          HttpStatus.CONFLICT,
+          "A request with the same idempotency key is still being processed",
+          properties.getInFlight().getRetryAfter().toSeconds());
+    } else if (!idempotencyModel.getRequestHash().equals(requestHash)) {
+      endpoint.record(observation, IdempotencyMetrics.Outcome.CONFLICT);
+      writeError(
+          request,
+          response,
+          HttpStatus.BAD_REQUEST,
+          "Idempotency key conflict: request data does not match previous request with the same key",
+          null);
+    } else {
+      endpoint.record(observation, IdempotencyMetrics.Outcome.REPLAYED);
+      replay(idempotencyModel, response);
+    }
+  }
+
+  private void proceedAndStore(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      FilterChain chain,
+      IdempotentEndpoint idempotent,
+      IdempotencyCacheKey cacheKey,
+      RequestFingerprint requestHash,
+      IdempotencyService.Reservation reservation)
+      throws ServletException, IOException {
+    ContentCachingResponseWrapper recorded = new ContentCachingResponseWrapper(response);
+    IdempotencyModel stored = null;
+    try {
+      chain.doFilter(request, recorded);
+      if (recorded.getStatus() / 100 == 2) {
+        stored =
+            idempotencyService.putResponse(
+                cacheKey, record(recorded, requestHash), idempotent.ttl());
+      } else if (errorResponses.stores(recorded.getStatus())) {
+        stored =
+            idempotencyService.putResponse(
+                cacheKey, record(recorded, requestHash), errorResponses.ttl(idempotent));
+      }
+    } finally {
+      idempotencyService.release(cacheKey, reservation, stored);
+    }
+    // Only sent once stored, a failed write still leaves the response uncommitted for an error
+    recorded.copyBodyToResponse();
+  }
+
+  private static IdempotencyModel record(
+      ContentCachingResponseWrapper recorded, RequestFingerprint requestHash) {
+    HttpHeaders headers = new HttpHeaders();
+    for (String name : recorded.getHeaderNames()) {
+      if (!HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)
+          && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+        headers.addAll(name, recorded.getHeaders(name).stream().toList());
+      }
+    }
+    // Kept apart from the other headers by some containers until the response is committed
+    if (recorded.getContentType() != null) {
+      headers.set(HttpHeaders.CONTENT_TYPE, recorded.getContentType());
+    }
+    byte[] body = recorded.getContentAsByteArray();
+    return IdempotencyModel.builder()
+        .requestHash(requestHash)
+        .status(recorded.getStatus())
+        .headers(IdempotencyModel.encodeHeaders(headers))
+        .body(body.length == 0 ? null : body)
+        .build();
+  }
+
+  private static void replay(IdempotencyModel model, HttpServletResponse response)
+      throws IOException {
+    response.setStatus(model.getStatus());
+    IdempotencyModel.decodeHeaders(model.getHeaders())
+        .forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+    if (model.getBody() != null && !model.isCompressed()) {
+      response.setContentLength(model.getBody().length);
+    }
+    // Inflates a compressed body straight into the response
+    model.writeBody(response.getOutputStream());
+  }
+
+  /** Whether a duplicate waits for the in-flight execution without holding its thread. */
+  private boolean parks(IdempotentEndpoint idempotent, HttpServletRequest request, long deadline) {
+    return properties.getInFlight().isAsync()
+        && idempotent.inFlightPolicy() == IdempotencyProperties.InFlightPolicy.WAIT
+        && request.isAsyncSupported()
+        && deadline - System.nanoTime() > 0;
+  }
+
+  private boolean inFlightRejected(IdempotentEndpoint idempotent, long deadline) {
+    return idempotent.inFlightPolicy() == IdempotencyProperties.InFlightPolicy.REJECT
+        || deadline - System.nanoTime() <= 0;
+  }
+
+  private static IdempotencyModel awaitInFlight(
+      IdempotencyService.Reservation reservation, long deadline) {
+    try {
+      return reservation.result().get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException | ExecutionException ex) {
+      // Owners complete with null rather than exceptionally, so both end up retrying or rejected
+      return null;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  private void writeBodyTooLarge(
+      HttpServletRequest request, HttpServletResponse response, long maxBodySize)
+      throws IOException {
+    writeError(
+        request,
+        response,
+        HttpStatus.CONTENT_TOO_LARGE,
+        "Request body is larger than " + maxBodySize + " bytes",
+        null);
+  }
+
+  private void writeError(
+      HttpServletRequest request,
+      HttpServletResponse response,
+      HttpStatus status,
+      String message,
+      Long retryAfterSeconds)
+      throws IOException {
+    response.setStatus(status.value());
+    if (retryAfterSeconds != null) {
+      response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+    response.setContentType("application/json");
+    objectMapper.writeValue(
+        response.getOutputStream(), ErrorResponses.body(status, message, request.getRequestURI()));
+  }
+
+  /**
+   * A duplicate parked as an async request, answered from the callback of the execution it waits on
+   * rather than by a thread blocked on it. Times out with the same conflict as a blocking wait, and
+   * is sent the same conflict, to be retried, if that execution stored nothing.
+   */
+  private final class ParkedDuplicate implements AsyncListener {
+
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final RequestFingerprint requestHash;
+    private final IdempotencyMetrics.Endpoint endpoint;
+    private final Observation observation;
+    private final AsyncContext context;
+    // Claimed by whichever of the callback and the timeout answers first
+    private final AtomicBoolean answered = new AtomicBoolean();
+
+    private ParkedDuplicate(
+        HttpServletRequest request,
+        HttpServletResponse response,
+        RequestFingerprint requestHash,
+        IdempotencyMetrics.Endpoint endpoint,
+        Observation observation,
+        long deadline) {
+      this.request = request;
+      this.response = response;
+      this.requestHash = requestHash;
+      this.endpoint = endpoint;
+      this.observation = observation;
+      this.context = request.startAsync(request, response);
+      context.setTimeout(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+      context.addListener(this);
+      endpoint.recordInFlightWait();
+    }
+
+    private void awaitOn(IdempotencyService.Reservation reservation) {
+      reservation
+          .result()
+          .whenComplete(
+              (model, ex) -> {
+                // Written on a container thread, the completing one is finishing its own request
+                if (answered.compareAndSet(false, true)) {
+                  context.start(() -> answer(model));
+                }
+              });
+    }
+
+    private void answer(IdempotencyModel model) {
+      try {
+        IdempotencyFilter.this.answer(request, response, requestHash, model, endpoint, observation);
+      } catch (IOException | RuntimeException ex) {
+        observation.error(ex);
+      } finally {
+        context.complete();
+      }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      if (answered.compareAndSet(false, true)) {
+        answer(null);
+      }
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      answered.set(true);
+      observation.error(event.getThrowable());
+      context.complete();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      observation.stop();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {}
+  }
+
+  /** Fails a read once more than {@code limit} bytes of the body have been read. */
+  private static final class LimitedInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private LimitedInputStream(InputStream in, long limit) {
+      super(in);
+      this.remaining = limit;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1 && --remaining < 0) {
+        throw new BodyTooLargeException();
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0 && (remaining -= read) < 0) {
+        throw new BodyTooLargeException();
+      }
+      return read;
+    }
+  }
+
+  private static final class BodyTooLargeException extends IOException {}
+
+  /** Hands the body the filter has already read on to the rest of the chain. */
+  private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+    private final byte[] body;
+
+    private CachedBodyRequest(HttpServletRequest request, byte[] body) {
+      super(request);
+      this.body = body;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() {
+      ByteArrayInputStream in = new ByteArrayInputStream(body);
+      return new ServletInputStream() {
+        @Override
+        public int read() {
+          return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+          return in.read(b, off, len);
+        }
+
+        @Override
+        public boolean isFinished() {
+          return in.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+          return true;
+        }
+
+        // All of the body is in memory, so it is available to read at once and never blocks
+        @Override
+        public void setReadListener(ReadListener listener) {
+          try {
+            listener.onDataAvailable();
+            if (isFinished()) {
+              listener.onAllDataRead();
+            }
+          } catch (IOException | RuntimeException ex) {
+            listener.onError(ex);
+          }
+        }
+      };
+    }
+
+    @Override
+    public BufferedReader getReader() {
+      String encoding = getCharacterEncoding();
+      Charset charset = encoding == null ? StandardCharsets.UTF_8 : Charset.forName(encoding);
+      return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+    }
+
+    @Override
+    public int getContentLength() {
+      return body.length;
+    }
+
+    @Override
+    public long getContentLengthLong() {
+      return body.length;
+    }
+  }
+}
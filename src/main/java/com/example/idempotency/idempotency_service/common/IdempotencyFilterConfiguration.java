@@ -0,0 +1,38 @@
+package com.example.idempotency.idempotency_service.common;
+
+import com.example.idempotency.idempotency_service.services.IdempotencyService;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import tools.jackson.databind.ObjectMapper;
+
+@Configuration
+public class IdempotencyFilterConfiguration {
+
+  // Registered either way, only switched on in FILTER mode so the advice stays the default
+  @Bean
+  public FilterRegistrationBean<IdempotencyFilter> idempotencyFilter(
+      IdempotentEndpointRegistry endpoints,
+      IdempotencyService idempotencyService,
+      RequestFingerprinter fingerprinter,
+      IdempotencyProperties properties,
+      IdempotencyMetrics metrics,
+      ObjectMapper objectMapper,
+      ErrorResponses errorResponses) {
+    FilterRegistrationBean<IdempotencyFilter> registration =
+        new FilterRegistrationBean<>(
+            new IdempotencyFilter(
+                endpoints,
+                idempotencyService,
+                fingerprinter,
+                properties,
+                metrics,
+                objectMapper,
+                errorResponses));
+    registration.setEnabled(
+        properties.getEnforcement() == IdempotencyProperties.Enforcement.FILTER);
+    registration.setOrder(Ordered.LOWEST_PRECEDENCE - 10);
+    return registration;
+  }
+}
@@ -0,0 +1,168 @@
+package com.example.idempotency.idempotency_service.common;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Meters for idempotency decisions. Per-endpoint meters are tagged with the request method and the
+ * matched URI pattern, like Spring MVC's own request metrics, and are built once per endpoint.
+ */
+@Component
+public class IdempotencyMetrics {
+
+  private static final String ADVICE = "idempotency.advice";
+
+  private static final String UNKNOWN_URI = "UNKNOWN";
+
+  private final MeterRegistry meterRegistry;
+  private final ObservationRegistry observationRegistry;
+  private final Timer storeLookup;
+  private final Timer storeWrite;
+  private final DistributionSummary compressionRatio;
+  private final Counter rawBytes;
+  private final Counter storedBytes;
+
+  // Request method, then URI pattern
+  private final Map<String, Map<String, Endpoint>> endpoints = new ConcurrentHashMap<>();
+
+  public IdempotencyMetrics(MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
+    this.meterRegistry = meterRegistry;
+    this.observationRegistry = observationRegistry;
+    this.storeLookup =
+        Timer.builder("idempotency.store.lookup")
+            .description("Time spent reading or reserving a key in the idempotency store")
+            .register(meterRegistry);
+    this.storeWrite =
+        Timer.builder("idempotency.store.write")
+            .description("Time spent writing a response to the idempotency store")
+            .register(meterRegistry);
+    this.compressionRatio =
+        DistributionSummary.builder("idempotency.compression.ratio")
+            .description("Size of response bodies eligible for compression over their stored size")
+            .register(meterRegistry);
+    this.rawBytes = compressionBytes("raw");
+    this.storedBytes = compressionBytes("stored");
+  }
+
+  private Counter compressionBytes(String stage) {
+    return Counter.builder("idempotency.compression.bytes")
+        .description("Bytes of response bodies eligible for compression, as sent and as stored")
+        .baseUnit("bytes")
+        .tags("stage", stage)
+        .register(meterRegistry);
+  }
+
+  public Endpoint endpoint(HttpServletRequest request) {
+    Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+    String uri = pattern instanceof String value ? value : UNKNOWN_URI;
+    Map<String, Endpoint> byUri = endpoints.get(request.getMethod());
+    Endpoint endpoint = byUri == null ? null : byUri.get(uri);
+    if (endpoint != null) {
+      return endpoint;
+    }
+    // computeIfAbsent locks its bin, so only take it the first time an endpoint is seen
+    return endpoints
+        .computeIfAbsent(request.getMethod(), method -> new ConcurrentHashMap<>())
+        .computeIfAbsent(uri, key -> new Endpoint(request.getMethod(), key));
+  }
+
+  public void recordStoreLookup(long startNanos) {
+    storeLookup.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordStoreWrite(long startNanos) {
+    storeWrite.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordCompression(int raw, int stored) {
+    compressionRatio.record((double) raw / stored);
+    rawBytes.increment(raw);
+    storedBytes.increment(stored);
+  }
+
+  /** How the advice resolved a request, recorded as the {@code outcome} of its observation. */
+  public enum Outcome {
+    // First execution for the key
+    EXECUTED,
+    // Stored or in-flight response replayed
+    REPLAYED,
+    // Key reused with a different request
+    CONFLICT,
+    // Duplicate turned away while the first execution was still running
+    REJECTED
+  }
+
+  public final class Endpoint {
+
+    private final String method;
+    private final String uri;
+    private final Timer fingerprint;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter conflicts;
+    private final Counter inFlightWaits;
+    private final Counter rejections;
+
+    private Endpoint(String method, String uri) {
+      this.method = method;
+      this.uri = uri;
+      this.fingerprint =
+          Timer.builder("idempotency.fingerprint")
+              .description("Time spent serializing and hashing the request")
+              .tags("method", method, "uri", uri)
+              .register(meterRegistry);
+      this.hits = outcome(Outcome.REPLAYED);
+      this.misses = outcome(Outcome.EXECUTED);
+      this.conflicts = outcome(Outcome.CONFLICT);
+      this.rejections = outcome(Outcome.REJECTED);
+      this.inFlightWaits =
+          Counter.builder("idempotency.in_flight.waits")
+              .description("Duplicates that waited for an in-flight execution")
+              .tags("method", method, "uri", uri)
+              .register(meterRegistry);
+    }
+
+    private Counter outcome(Outcome outcome) {
+      return Counter.builder("idempotency.requests")
+          .description("Idempotent requests by outcome")
+          .tags("method", method, "uri", uri, "outcome", outcome.name())
+          .register(meterRegistry);
+    }
+
+    /** Starts the observation spanning the whole advice; tracing turns it into a span. */
+    public Observation start() {
+      return Observation.createNotStarted(ADVICE, observationRegistry)
+          .lowCardinalityKeyValue("method", method)
+          .lowCardinalityKeyValue("uri", uri)
+          .start();
+    }
+
+    public void record(Observation observation, Outcome outcome) {
+      observation.lowCardinalityKeyValue("outcome", outcome.name());
+      switch (outcome) {
+        case EXECUTED -> misses.increment();
+        case REPLAYED -> hits.increment();
+        case CONFLICT -> conflicts.increment();
+        case REJECTED -> rejections.increment();
+      }
+    }
+
+    public void recordFingerprint(long startNanos) {
+      fingerprint.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordInFlightWait() {
+      inFlightWaits.increment();
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package com.example.idempotency.idempotency_service.common;
+
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "idempotency")
+public class IdempotencyProperties {
+
+  // TTL applied when an @Idempotent endpoint does not declare its own
+  private Duration defaultTtl = Duration.ofHours(24);
+
+  // Longer idempotency keys are rejected with a 400 before they reach the store
+  private int maxKeyLength = 255;
+
+  private Store store = new Store();
+
+  private InFlight inFlight = new InFlight();
+
+  private Fingerprint fingerprint = new Fingerprint();
+
+  private Enforcement enforcement = Enforcement.ADVICE;
+
+  // Largest body the filter holds in memory to fingerprint, a larger one is rejected with 413
+  private DataSize maxFilterBodySize = DataSize.ofMegabytes(1);
+
+  private Compression compression = new Compression();
+
+  private Errors errors = new Errors();
+
+  /** Whether responses are stored in the same transaction as the write they record. */
+  public boolean usesBusinessTransaction() {
+    return store.getType() == StoreType.JDBC && store.getJdbc().isTransactional();
+  }
+
+  public enum Enforcement {
+    // Around the handler method, once Spring MVC has read and bound the request
+    ADVICE,
+    // In a servlet filter ahead of Spring MVC, fingerprinting and replaying raw bytes
+    FILTER
+  }
+
+  public enum FingerprintAlgorithm {
+    SHA_256,
+    // Much cheaper, for deployments where request data is trusted not to be crafted for collisions
+    MURMUR3_128
+  }
+
+  @Data
+  public static class Errors {
+
+    // Store errors too, so a retry that can only fail the same way replays the first failure
+    private boolean enabled = false;
+
+    // How long an error is replayed for, capped at the endpoint's own TTL
+    private Duration ttl = Duration.ofMinutes(5);
+
+    // Handler exceptions whose response the advice stores
+    private List<Class<? extends Throwable>> exceptions = List.of(IdempotancyException.class);
+
+    // Statuses stored as errors: a stored exception must be answered with one, and the filter
+    // stores any response with one
+    private Set<Integer> statuses = Set.of(400, 404, 422);
+  }
+
+  @Data
+  public static class Compression {
+
+    private boolean enabled = false;
+
+    // Bodies smaller than this are stored as they are, too little to gain from deflating
+    private DataSize minSize = DataSize.ofBytes(64);
+
+    // Deflate level, 1 is fastest and already takes most of the gain on small JSON
+    private int level = 1;
+  }
+
+  @Data
+  public static class Fingerprint {
+
+    private FingerprintAlgorithm algorithm = FingerprintAlgorithm.SHA_256;
+  }
+
+  public enum InFlightPolicy {
+    // Duplicates wait for the first execution and replay its response
+    WAIT,
+    // Duplicates are rejected straight away with 409 and a Retry-After hint
+    REJECT
+  }
+
+  @Data
+  public static class InFlight {
+
+    private InFlightPolicy policy = InFlightPolicy.WAIT;
+
+    // Longest a duplicate waits for the first execution before it is rejected
+    private Duration waitTimeout = Duration.ofSeconds(5);
+
+    // Park waiting duplicates as async requests instead of blocking a servlet thread on them
+    private boolean async = true;
+
+    // Value of the Retry-After header sent with a 409
+    private Duration retryAfter = Duration.ofSeconds(1);
+
+    // How long a reservation holds its key if the owning instance dies before releasing it
+    private Duration lease = Duration.ofSeconds(30);
+
+    // How often a key reserved by another instance is re-read while waiting for it
+    private Duration pollInterval = Duration.ofMillis(50);
+  }
+
+  public enum StoreType {
+    MEMORY,
+    // Per instance like MEMORY, but records live in direct memory outside the heap
+    OFF_HEAP,
+    // Per instance, persisted to a local journal so keys survive a restart
+    JOURNAL,
+    JDBC
+  }
+
+  @Data
+  public static class Store {
+
+    private StoreType type = StoreType.MEMORY;
+
+    private Memory memory = new Memory();
+
+    private OffHeap offHeap = new OffHeap();
+
+    private Journal journal = new Journal();
+
+    private Jdbc jdbc = new Jdbc();
+
+    private NearCache nearCache = new NearCache();
+
+    private WriteBehind writeBehind = new WriteBehind();
+  }
+
+  @Data
+  public static class NearCache {
+
+    // Serve hot keys from a local tier in front of a shared store
+    private boolean enabled = false;
+
+    // How long a completed response is served locally without consulting the shared store
+    private Duration ttl = Duration.ofSeconds(30);
+
+    // How long a key the shared store reported as absent is answered locally
+    private Duration negativeTtl = Duration.ofSeconds(1);
+
+    // Keys absorbed by each Bloom filter generation before it is rotated out
+    private long expectedKeys = 1_000_000;
+
+    private double falsePositiveRate = 0.01;
+
+    private Memory memory =
+        new Memory(10_000, DataSize.ofMegabytes(8), Duration.ofSeconds(5), 1, null);
+  }
+
+  @Data
+  public static class WriteBehind {
+
+    // Queue completed responses and write them to the shared store in the background
+    private boolean enabled = false;
+
+    // Queued records above which writes go straight to the shared store again
+    private int capacity = 10_000;
+
+    // Largest number of records sent to the shared store in one batch
+    private int batchSize = 500;
+
+    // Longest a record waits in the queue before it is written
+    private Duration maxFlushDelay = Duration.ofMillis(50);
+  }
+
+  @Data
+  public static class OffHeap {
+
+    // Size of each slab records are appended to; a single record must fit in one
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    // Number of slabs, so the direct memory held is segment-size times segment-count
+    private int segmentCount = 16;
+
+    // Upper bound on the number of live keys, which sizes the index
+    private long maximumEntries = 1_000_000;
+
+    // How often expired slabs are freed and mostly dead slabs compacted
+    private Duration compactionInterval = Duration.ofSeconds(30);
+
+    // Live fraction below which a slab is compacted
+    private double compactionThreshold = 0.5;
+  }
+
+  public enum FsyncPolicy {
+    // Every append is forced to disk before the request completes
+    SYNC,
+    // Appends are forced to disk every fsync-interval, so a crash loses at most that window
+    BATCH,
+    // Flushing is left to the operating system, which only protects against process crashes
+    ASYNC
+  }
+
+  @Data
+  public static class Journal {
+
+    private Path directory = Path.of("data", "idempotency-journal");
+
+    // Size of each journal file; a single record must fit in one
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    private FsyncPolicy fsync = FsyncPolicy.BATCH;
+
+    private Duration fsyncInterval = Duration.ofMillis(100);
+
+    // How often journal files whose records have all expired are deleted
+    private Duration purgeInterval = Duration.ofMinutes(1);
+  }
+
+  @Data
+  public static class Jdbc {
+
+    // Create idempotency_records on startup if it does not exist
+    private boolean initializeSchema = true;
+
+    // How often expired rows are deleted
+    private Duration purgeInterval = Duration.ofMinutes(1);
+
+    // Store each response in the transaction of the write it records, so neither commits alone;
+    // needs the table on the application's own datasource
+    private boolean transactional = false;
+  }
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Memory {
+
+    // Upper bound on the number of cached keys
+    private long maximumSize = 100_000;
+
+    // Upper bound on the estimated heap held by cached entries
+    private DataSize maximumWeight = DataSize.ofMegabytes(64);
+
+    // Tick of the expiry wheel: expired entries are purged this often, each run only touching
+    // the entries that expired since the previous one
+    private Duration expiryInterval = Duration.ofSeconds(1);
+
+    // Independent segments keys are spread over, rounded up to a power of two; each one has its
+    // own lock, eviction order and share of the bounds, so writers on many cores rarely collide
+    private int shards = 1;
+
+    // File live entries are written to on shutdown and loaded back from on startup, none if unset
+    private Path snapshot;
+  }
+}
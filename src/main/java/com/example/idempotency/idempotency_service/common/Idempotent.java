@@ -6,9 +6,40 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Makes a POST or PATCH handler idempotent. The attributes are read once per handler method, at
+ * startup, by {@link IdempotentEndpointRegistry}.
+ */
 @Target({ElementType.METHOD, ElementType.TYPE})
 @Retention(RetentionPolicy.RUNTIME)
 @Documented
 public @interface Idempotent {
-  // Marker annotation for idempotent methods
+
+  /**
+   * How long a stored response is replayed for, e.g. {@code "15m"} or {@code "PT24H"}. Falls back
+   * to {@code idempotency.default-ttl} when empty.
+   */
+  String ttl() default "";
+
+  /** Request header carrying the idempotency key. */
+  String header() default IdempotencyAspect.IDEMPOTENCY_HEADER_KEY;
+
+  /** Whether a request without the header is rejected, rather than executed without a key. */
+  boolean required() default true;
+
+  /** Which part of the request a reused key must match. */
+  Fingerprint fingerprint() default Fingerprint.ARGUMENTS;
+
+  /**
+   * What a duplicate does while the first request is still running. Falls back to {@code
+   * idempotency.in-flight.policy} when empty.
+   */
+  IdempotencyProperties.InFlightPolicy[] inFlight() default {};
+
+  enum Fingerprint {
+    // Every handler argument: body, path variables and bound headers
+    ARGUMENTS,
+    // Only the @RequestBody argument
+    BODY
+  }
 }
@@ -0,0 +1,36 @@
+package com.example.idempotency.idempotency_service.common;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.time.Duration;
+import org.springframework.http.HttpMethod;
+
+/**
+ * Resolved {@link Idempotent} settings of one handler method.
+ *
+ * @param id method and URI pattern keys are stored under, null when the handler has several and the
+ *     request has to tell which one it came through
+ * @param bodyIndex position of the argument fingerprinted with the request target, or -1 for all of
+ *     the arguments
+ * @param writesOnly whether the handler is only mapped to POST and PATCH, so requests need no check
+ */
+public record IdempotentEndpoint(
+    String id,
+    String header,
+    boolean required,
+    Duration ttl,
+    int bodyIndex,
+    IdempotencyProperties.InFlightPolicy inFlightPolicy,
+    boolean writesOnly) {
+
+  /** Only POST and PATCH are idempotent, other methods are idempotent by nature. */
+  public boolean handles(String method) {
+    return writesOnly || HttpMethod.POST.matches(method) || HttpMethod.PATCH.matches(method);
+  }
+
+  /** The body alone leaves out path variables and headers, so the request target goes with it. */
+  public Object[] fingerprinted(Object[] args, HttpServletRequest request) {
+    return bodyIndex < 0
+        ? args
+        : new Object[] {RequestFingerprinter.target(request), args[bodyIndex]};
+  }
+}
@@ -0,0 +1,180 @@
+package com.example.idempotency.idempotency_service.common;
+
+import ch.qos.logback.core.util.StringUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+/**
+ * {@link IdempotentEndpoint} settings by handler method. Handlers mapped by Spring MVC are resolved
+ * once the context has been refreshed, so requests only look their method up; any other annotated
+ * method is resolved the first time it is called.
+ */
+@Component
+public class IdempotentEndpointRegistry implements ApplicationListener<ContextRefreshedEvent> {
+
+  private static final Set<RequestMethod> WRITES = Set.of(RequestMethod.POST, RequestMethod.PATCH);
+
+  private final IdempotencyProperties properties;
+  private final Map<Method, IdempotentEndpoint> endpoints = new ConcurrentHashMap<>();
+  private final List<RequestMappingHandlerMapping> mappings = new CopyOnWriteArrayList<>();
+
+  // Request method, then URI pattern
+  private final Map<String, Map<String, String>> endpointIds = new ConcurrentHashMap<>();
+
+  public IdempotentEndpointRegistry(IdempotencyProperties properties) {
+    this.properties = properties;
+  }
+
+  @Override
+  public void onApplicationEvent(ContextRefreshedEvent event) {
+    Collection<RequestMappingHandlerMapping> handlerMappings =
+        event.getApplicationContext().getBeansOfType(RequestMappingHandlerMapping.class).values();
+    mappings.clear();
+    mappings.addAll(handlerMappings);
+    handlerMappings.forEach(
+        mapping ->
+            mapping
+                .getHandlerMethods()
+                .forEach(
+                    (info, handler) -> {
+                      Idempotent idempotent = find(handler.getMethod());
+                      if (idempotent != null) {
+                        endpoints.put(
+                            handler.getMethod(), resolve(handler.getMethod(), idempotent, info));
+                      }
+                    }));
+  }
+
+  public IdempotentEndpoint get(Method method) {
+    IdempotentEndpoint endpoint = endpoints.get(method);
+    if (endpoint != null) {
+      return endpoint;
+    }
+    return endpoints.computeIfAbsent(method, key -> resolve(key, find(key), null));
+  }
+
+  /**
+   * Settings of the idempotent handler Spring MVC will dispatch {@code request} to, or null when it
+   * goes anywhere else. Only looks the handler up, nothing of the request is read or bound; the
+   * matched pattern is left in the request attributes, as the dispatcher would.
+   */
+  public IdempotentEndpoint match(HttpServletRequest request) throws Exception {
+    for (RequestMappingHandlerMapping mapping : mappings) {
+      HandlerExecutionChain chain = mapping.getHandler(request);
+      if (chain != null) {
+        return chain.getHandler() instanceof HandlerMethod handler
+            ? endpoints.get(handler.getMethod())
+            : null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Method and URI pattern keys of {@code endpoint} are stored under. Handlers mapped several ways
+   * are resolved once per pattern and the id is shared by every key stored for it; the resource a
+   * request names within the pattern goes into the key as its {@link #resource}.
+   */
+  public String endpointId(IdempotentEndpoint endpoint, HttpServletRequest request) {
+    if (endpoint.id() != null) {
+      return endpoint.id();
+    }
+    Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+    if (!(pattern instanceof String uri)) {
+      // Not dispatched through a handler mapping, there is no pattern to share
+      return request.getMethod() + " " + request.getRequestURI();
+    }
+    Map<String, String> byUri = endpointIds.get(request.getMethod());
+    String endpointId = byUri == null ? null : byUri.get(uri);
+    if (endpointId != null) {
+      return endpointId;
+    }
+    return endpointIds
+        .computeIfAbsent(request.getMethod(), method -> new ConcurrentHashMap<>())
+        .computeIfAbsent(uri, key -> request.getMethod() + " " + key);
+  }
+
+  /**
+   * Values of the path variables {@code request} matched, so a key reused on another resource of
+   * the same endpoint is a new request there; null when the pattern has none. Several values are
+   * joined in the order of their names.
+   */
+  public static String resource(HttpServletRequest request) {
+    Object attribute = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+    if (!(attribute instanceof Map<?, ?> variables) || variables.isEmpty()) {
+      return null;
+    }
+    if (variables.size() == 1) {
+      return String.valueOf(variables.values().iterator().next());
+    }
+    StringJoiner values = new StringJoiner("/");
+    new TreeMap<>(variables).values().forEach(value -> values.add(String.valueOf(value)));
+    return values.toString();
+  }
+
+  private IdempotentEndpoint resolve(
+      Method method, Idempotent idempotent, RequestMappingInfo info) {
+    if (idempotent == null) {
+      throw new IllegalStateException(method + " is not @Idempotent");
+    }
+    String id = null;
+    boolean writesOnly = false;
+    if (info != null) {
+      Set<RequestMethod> methods = info.getMethodsCondition().getMethods();
+      Set<String> patterns = info.getPatternValues();
+      if (methods.size() == 1 && patterns.size() == 1) {
+        id = methods.iterator().next().name() + " " + patterns.iterator().next();
+      }
+      writesOnly = !methods.isEmpty() && WRITES.containsAll(methods);
+    }
+    return new IdempotentEndpoint(
+        id,
+        idempotent.header(),
+        idempotent.required(),
+        StringUtil.isNullOrEmpty(idempotent.ttl())
+            ? properties.getDefaultTtl()
+            : DurationStyle.detectAndParse(idempotent.ttl()),
+        idempotent.fingerprint() == Idempotent.Fingerprint.BODY ? bodyIndex(method) : -1,
+        idempotent.inFlight().length == 0
+            ? properties.getInFlight().getPolicy()
+            : idempotent.inFlight()[0],
+        writesOnly);
+  }
+
+  private static Idempotent find(Method method) {
+    Idempotent idempotent = AnnotatedElementUtils.findMergedAnnotation(method, Idempotent.class);
+    return idempotent != null
+        ? idempotent
+        : AnnotatedElementUtils.findMergedAnnotation(method.getDeclaringClass(), Idempotent.class);
+  }
+
+  private static int bodyIndex(Method method) {
+    for (int i = 0; i < method.getParameterCount(); i++) {
+      if (new MethodParameter(method, i).hasParameterAnnotation(RequestBody.class)) {
+        return i;
+      }
+    }
+    throw new IllegalStateException(method + " fingerprints its body but has no @RequestBody");
+  }
+}
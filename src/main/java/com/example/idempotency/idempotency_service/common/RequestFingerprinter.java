@@ -0,0 +1,267 @@
+package com.example.idempotency.idempotency_service.common;
+
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Hashes request data without materialising it. Arguments are serialized by Jackson straight into a
+ * pooled hashing sink, so a request costs neither a JSON string nor a byte array, and the result is
+ * two longs rather than an encoded string.
+ */
+@Component
+public class RequestFingerprinter {
+
+  private final ObjectMapper objectMapper;
+  private final IdempotencyProperties.FingerprintAlgorithm algorithm;
+  private final BlockingQueue<FingerprintSink> pool;
+
+  public RequestFingerprinter(ObjectMapper objectMapper, IdempotencyProperties properties) {
+    this.objectMapper = objectMapper;
+    this.algorithm = properties.getFingerprint().getAlgorithm();
+    this.pool = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  public RequestFingerprint fingerprint(Object[] args) {
+    FingerprintSink sink = pool.poll();
+    if (sink == null) {
+      sink = newSink(algorithm);
+    }
+    try {
+      sink.reset();
+      objectMapper.writeValue(sink, args);
+      return sink.finish();
+    } finally {
+      pool.offer(sink);
+    }
+  }
+
+  /**
+   * Hashes {@code target} followed by the raw bytes of {@code body} as they are read, copying them
+   * to {@code copy} so the body can still be handed on.
+   */
+  public RequestFingerprint fingerprint(String target, InputStream body, OutputStream copy)
+      throws IOException {
+    FingerprintSink sink = pool.poll();
+    if (sink == null) {
+      sink = newSink(algorithm);
+    }
+    try {
+      sink.reset();
+      byte[] bytes = target.getBytes(StandardCharsets.UTF_8);
+      sink.write(bytes, 0, bytes.length);
+      // Keeps the target from running into the body
+      sink.write(0);
+      byte[] buffer = new byte[8192];
+      for (int read = body.read(buffer); read != -1; read = body.read(buffer)) {
+        sink.write(buffer, 0, read);
+        copy.write(buffer, 0, read);
+      }
+      return sink.finish();
+    } finally {
+      pool.offer(sink);
+    }
+  }
+
+  /**
+   * Method, URI with its query, and If-Match condition of {@code request}: what it is fingerprinted
+   * by besides its body when the handler arguments are not, so a body-only fingerprint still tells
+   * apart requests to other resources or conditional on other versions.
+   */
+  public static String target(HttpServletRequest request) {
+    String query = request.getQueryString();
+    String ifMatch = request.getHeader(HttpHeaders.IF_MATCH);
+    return request.getMethod()
+        + " "
+        + (query == null ? request.getRequestURI() : request.getRequestURI() + "?" + query)
+        + (ifMatch == null ? "" : " " + ifMatch);
+  }
+
+  static FingerprintSink newSink(IdempotencyProperties.FingerprintAlgorithm algorithm) {
+    return switch (algorithm) {
+      case SHA_256 -> new DigestSink();
+      case MURMUR3_128 -> new Murmur3Sink();
+    };
+  }
+
+  /** Reusable output stream that hashes everything written to it. */
+  abstract static class FingerprintSink extends OutputStream {
+
+    abstract void reset();
+
+    abstract RequestFingerprint finish();
+
+    @Override
+    public abstract void write(int b);
+
+    @Override
+    public abstract void write(byte[] b, int off, int len);
+
+    @Override
+    public void close() {
+      // Jackson closes its target when done, the sink is reused instead
+    }
+  }
+
+  private static final class DigestSink extends FingerprintSink {
+
+    private static final VarHandle LONG_BE =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final MessageDigest digest;
+    private final byte[] result;
+
+    DigestSink() {
+      try {
+        this.digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException ex) {
+        throw new IdempotancyException("Request Hash generation failed", ex);
+      }
+      this.result = new byte[digest.getDigestLength()];
+    }
+
+    @Override
+    void reset() {
+      digest.reset();
+    }
+
+    @Override
+    public void write(int b) {
+      digest.update((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      digest.update(b, off, len);
+    }
+
+    @Override
+    RequestFingerprint finish() {
+      try {
+        digest.digest(result, 0, result.length);
+      } catch (DigestException ex) {
+        throw new IdempotancyException("Request Hash generation failed", ex);
+      }
+      return new RequestFingerprint((long) LONG_BE.get(result, 0), (long) LONG_BE.get(result, 8));
+    }
+  }
+
+  /** Streaming MurmurHash3 x64 128-bit: far cheaper than SHA-256, but not collision resistant. */
+  private static final class Murmur3Sink extends FingerprintSink {
+
+    private static final VarHandle LONG_LE =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final byte[] block = new byte[16];
+    private int filled;
+    private long length;
+    private long h1;
+    private long h2;
+
+    @Override
+    void reset() {
+      filled = 0;
+      length = 0;
+      h1 = 0;
+      h2 = 0;
+    }
+
+    @Override
+    public void write(int b) {
+      block[filled++] = (byte) b;
+      length++;
+      if (filled == block.length) {
+        mixBlock(block, 0);
+        filled = 0;
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      length += len;
+      if (filled > 0) {
+        int n = Math.min(block.length - filled, len);
+        System.arraycopy(b, off, block, filled, n);
+        filled += n;
+        off += n;
+        len -= n;
+        if (filled < block.length) {
+          return;
+        }
+        mixBlock(block, 0);
+        filled = 0;
+      }
+      while (len >= block.length) {
+        mixBlock(b, off);
+        off += block.length;
+        len -= block.length;
+      }
+      System.arraycopy(b, off, block, 0, len);
+      filled = len;
+    }
+
+    @Override
+    RequestFingerprint finish() {
+      long k1 = 0;
+      long k2 = 0;
+      for (int i = filled - 1; i >= 8; i--) {
+        k2 ^= (block[i] & 0xffL) << ((i - 8) * 8);
+      }
+      for (int i = Math.min(filled, 8) - 1; i >= 0; i--) {
+        k1 ^= (block[i] & 0xffL) << (i * 8);
+      }
+      if (filled > 8) {
+        h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+      }
+      if (filled > 0) {
+        h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+      }
+      h1 ^= length;
+      h2 ^= length;
+      h1 += h2;
+      h2 += h1;
+      h1 = fmix(h1);
+      h2 = fmix(h2);
+      h1 += h2;
+      h2 += h1;
+      return new RequestFingerprint(h1, h2);
+    }
+
+    private void mixBlock(byte[] bytes, int offset) {
+      long k1 = (long) LONG_LE.get(bytes, offset);
+      long k2 = (long) LONG_LE.get(bytes, offset + 8);
+      h1 ^= Long.rotateLeft(k1 * C1, 31) * C2;
+      h1 = Long.rotateLeft(h1, 27) + h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= Long.rotateLeft(k2 * C2, 33) * C1;
+      h2 = Long.rotateLeft(h2, 31) + h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long fmix(long k) {
+      k ^= k >>> 33;
+      k *= 0xff51afd7ed558ccdL;
+      k ^= k >>> 33;
+      k *= 0xc4ceb9fe1a85ec53L;
+      k ^= k >>> 33;
+      return k;
+    }
+  }
+}
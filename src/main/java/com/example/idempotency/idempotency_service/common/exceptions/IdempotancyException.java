@@ -1,5 +1,9 @@
 package com.example.idempotency.idempotency_service.common.exceptions;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
 public class IdempotancyException extends RuntimeException {
 
   public IdempotancyException(String message) {
@@ -0,0 +1,19 @@
+package com.example.idempotency.idempotency_service.common.exceptions;
+
+import java.time.Duration;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** Thrown when a request arrives while another request with the same key is still executing. */
+@Getter
+@ResponseStatus(HttpStatus.CONFLICT)
+public class IdempotencyInFlightException extends IdempotancyException {
+
+  private final Duration retryAfter;
+
+  public IdempotencyInFlightException(String message, Duration retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+}
@@ -0,0 +1,18 @@
+package com.example.idempotency.idempotency_service.common.exceptions;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/** Thrown when a conditional update names a version the payment has already moved past. */
+@Getter
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+public class PaymentVersionConflictException extends IdempotancyException {
+
+  private final long currentVersion;
+
+  public PaymentVersionConflictException(String message, long currentVersion) {
+    super(message);
+    this.currentVersion = currentVersion;
+  }
+}
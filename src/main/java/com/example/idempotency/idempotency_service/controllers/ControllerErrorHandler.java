@@ -1,9 +1,12 @@
 package com.example.idempotency.idempotency_service.controllers;
 
+import com.example.idempotency.idempotency_service.common.ErrorResponses;
 import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotencyInFlightException;
+import com.example.idempotency.idempotency_service.common.exceptions.PaymentVersionConflictException;
 import com.example.idempotency.idempotency_service.dtos.MessageDto;
 import jakarta.servlet.http.HttpServletRequest;
-import java.time.Instant;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -18,17 +21,30 @@ public class ControllerErrorHandler {
     return buildError(HttpStatus.BAD_REQUEST, ex.getMessage(), request);
   }
 
+  @ExceptionHandler(IdempotencyInFlightException.class)
+  public ResponseEntity<MessageDto> handleInFlight(
+      IdempotencyInFlightException ex, HttpServletRequest request) {
+    return ResponseEntity.status(HttpStatus.CONFLICT)
+        .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfter().toSeconds()))
+        .body(buildBody(HttpStatus.CONFLICT, ex.getMessage(), request));
+  }
+
+  // Carries the current version so the client can retry without fetching the payment first
+  @ExceptionHandler(PaymentVersionConflictException.class)
+  public ResponseEntity<MessageDto> handleVersionConflict(
+      PaymentVersionConflictException ex, HttpServletRequest request) {
+    return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+        .eTag(String.valueOf(ex.getCurrentVersion()))
+        .body(buildBody(HttpStatus.PRECONDITION_FAILED, ex.getMessage(), request));
+  }
+
   private ResponseEntity<MessageDto> buildError(
       HttpStatus status, String message, HttpServletRequest request) {
-    MessageDto body =
-        MessageDto.builder()
-            .timestamp(Instant.now())
-            .status(status.value())
-            .error(status.getReasonPhrase())
-            .message(message)
-            .path(request.getRequestURI())
-            .build();
-    return ResponseEntity.status(status).body(body);
+    return ResponseEntity.status(status).body(buildBody(status, message, request));
+  }
+
+  private MessageDto buildBody(HttpStatus status, String message, HttpServletRequest request) {
+    return ErrorResponses.body(status, message, request.getRequestURI());
   }
 
   /* More Exceptions can be handled here & for the minilast implementation, only IdempotancyException is handled.
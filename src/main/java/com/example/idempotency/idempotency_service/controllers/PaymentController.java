@@ -1,13 +1,21 @@
 package com.example.idempotency.idempotency_service.controllers;
 
 import com.example.idempotency.idempotency_service.common.Idempotent;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.dtos.BatchPaymentItemDto;
+import com.example.idempotency.idempotency_service.dtos.BatchPaymentResultDto;
 import com.example.idempotency.idempotency_service.dtos.PaymentDto;
+import com.example.idempotency.idempotency_service.services.BatchPaymentService;
 import com.example.idempotency.idempotency_service.services.PaymentService;
+import java.util.List;
+import org.springframework.http.ETag;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -16,9 +24,11 @@ import org.springframework.web.bind.annotation.RestController;
 public class PaymentController {
 
   private final PaymentService paymentService;
+  private final BatchPaymentService batchPaymentService;
 
-  public PaymentController(PaymentService paymentService) {
+  public PaymentController(PaymentService paymentService, BatchPaymentService batchPaymentService) {
     this.paymentService = paymentService;
+    this.batchPaymentService = batchPaymentService;
   }
 
   // @GetMapping("/{id}") GET is idempotent by nature so not implementing that
@@ -28,13 +38,48 @@ public class PaymentController {
   @PostMapping("")
   @Idempotent
   public ResponseEntity<PaymentDto> createPayment(@RequestBody PaymentDto paymentDto) {
-    return ResponseEntity.ok(this.paymentService.createPayment(paymentDto));
+    return withETag(this.paymentService.createPayment(paymentDto));
   }
 
+  // Each item carries its own idempotency key, so the endpoint itself is not @Idempotent
+  @PostMapping("/batch")
+  public ResponseEntity<List<BatchPaymentResultDto>> createPayments(
+      @RequestBody List<BatchPaymentItemDto> items) {
+    return ResponseEntity.ok(this.batchPaymentService.createPayments(items));
+  }
+
+  // If-Match makes the update conditional on the version from an earlier ETag, a stale one gets 412
   @PatchMapping("/{id}")
   @Idempotent
   public ResponseEntity<PaymentDto> partialUpdatePayment(
-      @PathVariable String id, @RequestBody PaymentDto paymentDto) {
-    return ResponseEntity.ok(this.paymentService.partialUpdatePayment(id, paymentDto));
+      @PathVariable String id,
+      @RequestBody PaymentDto paymentDto,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    return withETag(
+        this.paymentService.partialUpdatePayment(id, paymentDto, expectedVersion(ifMatch)));
+  }
+
+  /** The response a created or updated payment is sent with, the batch endpoint stores it too. */
+  public static ResponseEntity<PaymentDto> withETag(PaymentDto paymentDto) {
+    return ResponseEntity.ok().eTag(String.valueOf(paymentDto.getVersion())).body(paymentDto);
+  }
+
+  private static Long expectedVersion(String ifMatch) {
+    if (ifMatch == null) {
+      return null;
+    }
+    List<ETag> tags = ETag.parse(ifMatch);
+    if (tags.size() != 1) {
+      throw new IdempotancyException("If-Match must name exactly one payment version");
+    }
+    ETag tag = tags.getFirst();
+    if (tag.isWildcard()) {
+      return null;
+    }
+    try {
+      return Long.valueOf(tag.tag());
+    } catch (NumberFormatException ex) {
+      throw new IdempotancyException("If-Match does not name a payment version");
+    }
   }
 }
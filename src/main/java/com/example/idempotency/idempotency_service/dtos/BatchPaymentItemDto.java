@@ -0,0 +1,16 @@
+package com.example.idempotency.idempotency_service.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchPaymentItemDto {
+
+  private String idempotencyKey;
+  private PaymentDto payment;
+}
@@ -0,0 +1,20 @@
+package com.example.idempotency.idempotency_service.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchPaymentResultDto {
+
+  private String idempotencyKey;
+  private int status;
+  // Whether the payment was created by an earlier request with the same key
+  private boolean replayed;
+  private PaymentDto payment;
+  private String error;
+}
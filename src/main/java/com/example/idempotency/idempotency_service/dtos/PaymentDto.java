@@ -1,5 +1,6 @@
 package com.example.idempotency.idempotency_service.dtos;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.math.BigDecimal;
 import java.util.UUID;
 import lombok.AllArgsConstructor;
@@ -16,4 +17,7 @@ public class PaymentDto {
   private UUID id;
   private BigDecimal amount;
   private String currency;
+
+  // Sent as the ETag header rather than in the body
+  @JsonIgnore private Long version;
 }
@@ -0,0 +1,158 @@
+package com.example.idempotency.idempotency_service.models;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Raw deflate of stored response bodies, primed with a preset dictionary of the JSON the service
+ * responds with. Bodies are small, so most of what they repeat is field names and fixed values
+ * shared with every other response rather than anything within themselves; the dictionary lets the
+ * first occurrence be a back-reference too. Deflaters and inflaters hold native buffers and are
+ * pooled.
+ *
+ * <p>Records written with a dictionary can only be read with the same one, so it must not change
+ * while compressed records are stored.
+ */
+public final class CompressedBody {
+
+  // Most frequent last: back-references to the end of the dictionary are the shortest
+  private static final byte[] DICTIONARY =
+      ("\"replayed\":false,\"replayed\":true,\"payment\":null,\"error\":null,"
+              + "{\"timestamp\":\"Z\",\"status\":400,\"error\":\"Bad Request\",\"status\":409,"
+              + "\"error\":\"Conflict\",\"message\":\"Idempotency key conflict: request data does"
+              + " not match previous request with the same key\",\"path\":\"/api/payments/"
+              + "\"},{\"idempotencyKey\":\"\",\"status\":200,\"payment\":"
+              + "{\"id\":\"-\",\"amount\":.0,\"currency\":\"")
+          .getBytes(StandardCharsets.US_ASCII);
+
+  private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+  private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+  private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+  private CompressedBody() {}
+
+  /** Deflates {@code raw}, or returns null when that would not make it smaller. */
+  public static byte[] deflate(byte[] raw, int level) {
+    Deflater deflater = DEFLATERS.poll();
+    if (deflater == null) {
+      deflater = new Deflater(level, true);
+    }
+    try {
+      deflater.setLevel(level);
+      deflater.setDictionary(DICTIONARY);
+      deflater.setInput(raw);
+      deflater.finish();
+      // Anything not smaller than the input is not worth storing compressed
+      byte[] out = new byte[raw.length];
+      int length = 0;
+      while (!deflater.finished() && length < out.length) {
+        length += deflater.deflate(out, length, out.length - length);
+      }
+      if (!deflater.finished()) {
+        return null;
+      }
+      byte[] compressed = new byte[length];
+      System.arraycopy(out, 0, compressed, 0, length);
+      return compressed;
+    } finally {
+      deflater.reset();
+      if (!DEFLATERS.offer(deflater)) {
+        deflater.end();
+      }
+    }
+  }
+
+  /** Stream of the original bytes, inflated as it is read; closing it returns its inflater. */
+  public static InputStream inflating(byte[] compressed) {
+    Inflater inflater = INFLATERS.poll();
+    if (inflater == null) {
+      inflater = new Inflater(true);
+    }
+    // A raw stream takes its dictionary up front, there is no header asking for it
+    inflater.setDictionary(DICTIONARY);
+    return new PooledInflaterInputStream(compressed, inflater);
+  }
+
+  /**
+   * Resource whose every stream inflates {@code compressed} afresh, so no inflater is borrowed
+   * until the body is actually written, and none is held by a response that never is.
+   */
+  public static Resource resource(byte[] compressed) {
+    return new InflatingResource(compressed);
+  }
+
+  public static byte[] inflate(byte[] compressed) {
+    try (InputStream in = inflating(compressed)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+      in.transferTo(out);
+      return out.toByteArray();
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private static final class InflatingResource extends AbstractResource {
+
+    private final byte[] compressed;
+
+    private InflatingResource(byte[] compressed) {
+      this.compressed = compressed;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return inflating(compressed);
+    }
+
+    // Always there, and checking would otherwise open a stream just to close it
+    @Override
+    public boolean exists() {
+      return true;
+    }
+
+    // Unknown without inflating the whole body, so the response is sent chunked instead
+    @Override
+    public long contentLength() {
+      return -1;
+    }
+
+    @Override
+    public String getDescription() {
+      return "compressed response body";
+    }
+  }
+
+  private static final class PooledInflaterInputStream extends InflaterInputStream {
+
+    private boolean closed;
+
+    private PooledInflaterInputStream(byte[] compressed, Inflater inflater) {
+      super(new ByteArrayInputStream(compressed), inflater, Math.min(compressed.length + 1, 512));
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      // Leaves an inflater it was handed open, so it can go back to the pool
+      super.close();
+      inf.reset();
+      if (!INFLATERS.offer(inf)) {
+        inf.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,283 @@
+package com.example.idempotency.idempotency_service.models;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Key a response is cached under: the endpoint a request was sent to, the resource it named there
+ * and its idempotency key.
+ *
+ * <p>Endpoint ids are resolved once per endpoint and shared by all of its keys. The resource is the
+ * values of the path variables the request matched, absent on endpoints without any. Resources and
+ * idempotency keys in canonical lower-case UUID form are held as two longs instead of a 36
+ * character string, anything else as is. Both hash codes are computed up front, since every store
+ * lookup needs one.
+ */
+public final class IdempotencyCacheKey {
+
+  private static final byte TEXT = 0;
+  private static final byte UUID_KEY = 1;
+  private static final byte NO_RESOURCE = 2;
+
+  private final String endpoint;
+  private final byte resourceType;
+  // Null unless the resource is held as text
+  private final String resource;
+  private final long resourceHigh;
+  private final long resourceLow;
+  // Null when the key is held as a UUID
+  private final String key;
+  private final long high;
+  private final long low;
+  private final int hashCode;
+  private final long hash64;
+
+  private IdempotencyCacheKey(
+      String endpoint,
+      byte resourceType,
+      String resource,
+      long resourceHigh,
+      long resourceLow,
+      String key,
+      long high,
+      long low) {
+    this.endpoint = endpoint;
+    this.resourceType = resourceType;
+    this.resource = resource;
+    this.resourceHigh = resourceHigh;
+    this.resourceLow = resourceLow;
+    this.key = key;
+    this.high = high;
+    this.low = low;
+    long hash = fnv(0xcbf29ce484222325L, endpoint);
+    if (resourceType == TEXT) {
+      hash = fnv(hash ^ 0xfe, resource);
+    } else if (resourceType == UUID_KEY) {
+      hash = fnv(fnv(hash ^ 0xfd, resourceHigh), resourceLow);
+    }
+    if (key == null) {
+      hash = fnv(fnv(hash, high), low);
+    } else {
+      hash = fnv(hash ^ 0xff, key);
+    }
+    this.hash64 = hash;
+    this.hashCode = (int) (hash ^ (hash >>> 32));
+  }
+
+  public static IdempotencyCacheKey of(String endpoint, String idempotencyKey) {
+    return of(endpoint, null, idempotencyKey);
+  }
+
+  /**
+   * @param resource values of the path variables the request matched, null if it matched none
+   */
+  public static IdempotencyCacheKey of(String endpoint, String resource, String idempotencyKey) {
+    Objects.requireNonNull(endpoint, "endpoint");
+    Objects.requireNonNull(idempotencyKey, "idempotencyKey");
+    byte resourceType = NO_RESOURCE;
+    long resourceHigh = 0;
+    long resourceLow = 0;
+    if (resource != null) {
+      resourceType = TEXT;
+      if (isCanonicalUuid(resource)) {
+        resourceType = UUID_KEY;
+        resourceHigh = uuidBits(resource, 0, 18);
+        resourceLow = uuidBits(resource, 19, 36);
+        resource = null;
+      }
+    }
+    return isCanonicalUuid(idempotencyKey)
+        ? new IdempotencyCacheKey(
+            endpoint,
+            resourceType,
+            resource,
+            resourceHigh,
+            resourceLow,
+            null,
+            uuidBits(idempotencyKey, 0, 18),
+            uuidBits(idempotencyKey, 19, 36))
+        : new IdempotencyCacheKey(
+            endpoint, resourceType, resource, resourceHigh, resourceLow, idempotencyKey, 0, 0);
+  }
+
+  /** Reads a key written by {@link #toBytes()}. */
+  public static IdempotencyCacheKey fromBytes(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    String endpointId = getString(buffer);
+    byte resourceType = buffer.get();
+    String resource = null;
+    long resourceHigh = 0;
+    long resourceLow = 0;
+    if (resourceType == TEXT) {
+      resource = getString(buffer);
+    } else if (resourceType == UUID_KEY) {
+      resourceHigh = buffer.getLong();
+      resourceLow = buffer.getLong();
+    }
+    if (buffer.get() == UUID_KEY) {
+      return new IdempotencyCacheKey(
+          endpointId,
+          resourceType,
+          resource,
+          resourceHigh,
+          resourceLow,
+          null,
+          buffer.getLong(),
+          buffer.getLong());
+    }
+    byte[] key = new byte[buffer.remaining()];
+    buffer.get(key);
+    return new IdempotencyCacheKey(
+        endpointId,
+        resourceType,
+        resource,
+        resourceHigh,
+        resourceLow,
+        new String(key, StandardCharsets.UTF_8),
+        0,
+        0);
+  }
+
+  /**
+   * Compact binary form for stores that persist keys: endpoint, then the resource as text, UUID
+   * bits or nothing, then the key or its UUID bits.
+   */
+  public byte[] toBytes() {
+    byte[] endpointBytes = endpoint.getBytes(StandardCharsets.UTF_8);
+    byte[] resourceBytes = resource == null ? null : resource.getBytes(StandardCharsets.UTF_8);
+    byte[] keyBytes = key == null ? null : key.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer =
+        ByteBuffer.allocate(
+            Short.BYTES
+                + endpointBytes.length
+                + 1
+                + switch (resourceType) {
+                  case TEXT -> Short.BYTES + resourceBytes.length;
+                  case UUID_KEY -> 2 * Long.BYTES;
+                  default -> 0;
+                }
+                + 1
+                + (keyBytes == null ? 2 * Long.BYTES : keyBytes.length));
+    buffer.putShort((short) endpointBytes.length).put(endpointBytes).put(resourceType);
+    if (resourceType == TEXT) {
+      buffer.putShort((short) resourceBytes.length).put(resourceBytes);
+    } else if (resourceType == UUID_KEY) {
+      buffer.putLong(resourceHigh).putLong(resourceLow);
+    }
+    if (keyBytes == null) {
+      buffer.put(UUID_KEY).putLong(high).putLong(low);
+    } else {
+      buffer.put(TEXT).put(keyBytes);
+    }
+    return buffer.array();
+  }
+
+  public String endpoint() {
+    return endpoint;
+  }
+
+  /** Values of the path variables the request matched, or null if it matched none. */
+  public String resource() {
+    return resourceType == UUID_KEY ? new UUID(resourceHigh, resourceLow).toString() : resource;
+  }
+
+  public String idempotencyKey() {
+    return key == null ? new UUID(high, low).toString() : key;
+  }
+
+  /** Whether the idempotency key is held as a UUID rather than as text. */
+  public boolean isUuid() {
+    return key == null;
+  }
+
+  /** Characters of the resource and idempotency key held as text rather than as UUID bits. */
+  public int textLength() {
+    return (resource == null ? 0 : resource.length()) + (key == null ? 0 : key.length());
+  }
+
+  /** 64-bit FNV-1a hash, for hash tables and filters that need more bits than {@link #hashCode}. */
+  public long hash64() {
+    return hash64;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    return other instanceof IdempotencyCacheKey that
+        && hash64 == that.hash64
+        && resourceType == that.resourceType
+        && resourceHigh == that.resourceHigh
+        && resourceLow == that.resourceLow
+        && high == that.high
+        && low == that.low
+        && Objects.equals(resource, that.resource)
+        && Objects.equals(key, that.key)
+        && endpoint.equals(that.endpoint);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+
+  /** Textual form, {@code endpoint:key} or {@code endpoint resource:key}. */
+  @Override
+  public String toString() {
+    return resourceType == NO_RESOURCE
+        ? endpoint + ":" + idempotencyKey()
+        : endpoint + " " + resource() + ":" + idempotencyKey();
+  }
+
+  // Only the canonical lower-case form, so the value reads back exactly as it was sent
+  private static boolean isCanonicalUuid(String value) {
+    if (value.length() != 36) {
+      return false;
+    }
+    for (int i = 0; i < 36; i++) {
+      char c = value.charAt(i);
+      boolean dash = i == 8 || i == 13 || i == 18 || i == 23;
+      if (dash != (c == '-') || (!dash && !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The 16 hex digits of a canonical UUID between from and to, skipping its dashes
+  private static long uuidBits(String uuid, int from, int to) {
+    long bits = 0;
+    for (int i = from; i < to; i++) {
+      char c = uuid.charAt(i);
+      if (c != '-') {
+        bits = (bits << 4) | Character.digit(c, 16);
+      }
+    }
+    return bits;
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort() & 0xffff];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static long fnv(long hash, String value) {
+    for (int i = 0; i < value.length(); i++) {
+      hash ^= value.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  private static long fnv(long hash, long value) {
+    for (int i = 0; i < Long.BYTES; i++) {
+      hash ^= (value >>> (i * 8)) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+}
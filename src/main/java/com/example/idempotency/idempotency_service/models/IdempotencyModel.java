@@ -1,27 +1,128 @@
 package com.example.idempotency.idempotency_service.models;
 
-import lombok.AllArgsConstructor;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
 
-@Data
-@NoArgsConstructor
-@AllArgsConstructor
-@Builder
+/**
+ * Stored outcome of an idempotent request. The response is kept already encoded: the body as the
+ * bytes that were written to the client and the headers in a compact binary form, so a replay hands
+ * the same bytes back without touching Jackson. Models are immutable, since stores hand the same
+ * instance to every replaying request; the byte arrays must not be written to once built.
+ */
+@Value
+@Builder(toBuilder = true)
 public class IdempotencyModel {
 
-  private String requestHash;
-  private Object response;
-  private HttpStatusCode status;
-  private HttpHeaders headers;
+  private static final byte[] NO_HEADERS = new byte[] {0, 0};
 
-  public ResponseEntity<Object> toResponseEntity() {
-    HttpHeaders copy = new HttpHeaders();
-    headers.headerSet().forEach(entry -> copy.put(entry.getKey(), entry.getValue()));
-    return new ResponseEntity<>(response, copy, status);
+  private RequestFingerprint requestHash;
+  private int status;
+  private byte[] headers;
+  private byte[] body;
+
+  // Whether body holds the response deflated by CompressedBody
+  private boolean compressed;
+
+  // Reservation marker for a key whose first execution has not stored a response yet
+  private boolean pending;
+
+  public static IdempotencyModel pending(RequestFingerprint requestHash) {
+    return IdempotencyModel.builder().requestHash(requestHash).pending(true).build();
+  }
+
+  /**
+   * A compressed body is inflated as it is written out, rather than into a copy first, and only
+   * once the entity is actually written.
+   */
+  public ResponseEntity<?> toResponseEntity() {
+    return new ResponseEntity<>(
+        compressed ? CompressedBody.resource(body) : body,
+        decodeHeaders(headers),
+        HttpStatusCode.valueOf(status));
+  }
+
+  /** The response body as sent, inflated if it is stored compressed. */
+  public byte[] readBody() {
+    return compressed && body != null ? CompressedBody.inflate(body) : body;
+  }
+
+  /** Writes the response body as sent to {@code out}. */
+  public void writeBody(OutputStream out) throws IOException {
+    if (body == null) {
+      return;
+    }
+    if (!compressed) {
+      out.write(body);
+      return;
+    }
+    try (InputStream in = CompressedBody.inflating(body)) {
+      in.transferTo(out);
+    }
+  }
+
+  /** Encodes headers as a count followed by length-prefixed names and values. */
+  public static byte[] encodeHeaders(HttpHeaders headers) {
+    if (headers == null || headers.isEmpty()) {
+      return NO_HEADERS;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeShort(headers.size());
+      for (Map.Entry<String, List<String>> header : headers.headerSet()) {
+        writeString(out, header.getKey());
+        out.writeShort(header.getValue().size());
+        for (String value : header.getValue()) {
+          writeString(out, value);
+        }
+      }
+    } catch (IOException ex) {
+      // Not thrown by an in-memory stream
+      throw new UncheckedIOException(ex);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static HttpHeaders decodeHeaders(byte[] encoded) {
+    HttpHeaders headers = new HttpHeaders();
+    if (encoded == null) {
+      return headers;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(encoded);
+    int count = buffer.getShort();
+    for (int i = 0; i < count; i++) {
+      String name = getString(buffer);
+      int values = buffer.getShort();
+      for (int j = 0; j < values; j++) {
+        headers.add(name, getString(buffer));
+      }
+    }
+    return headers;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String getString(ByteBuffer buffer) {
+    int length = buffer.getShort() & 0xffff;
+    String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+    buffer.position(buffer.position() + length);
+    return value;
   }
 }
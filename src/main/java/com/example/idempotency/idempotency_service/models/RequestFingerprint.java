@@ -0,0 +1,4 @@
+package com.example.idempotency.idempotency_service.models;
+
+/** Fixed-width 128-bit hash of the request data an idempotency key was first used with. */
+public record RequestFingerprint(long high, long low) {}
@@ -1,7 +1,41 @@
 package com.example.idempotency.idempotency_service.repositories;
 
 import com.example.idempotency.idempotency_service.models.Payment;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Optional;
 import java.util.UUID;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
-public interface PaymentRepository extends JpaRepository<Payment, UUID> {}
+public interface PaymentRepository extends JpaRepository<Payment, UUID> {
+
+  /**
+   * Applies the non-null fields in one conditional update and bumps the version.
+   *
+   * @param expectedVersion only update if the row is still at this version, null to skip the check
+   * @return the number of rows updated, 0 if the payment is missing or was modified meanwhile
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query(
+      """
+      update Payment p
+         set p.amount = coalesce(:amount, p.amount),
+             p.currency = coalesce(:currency, p.currency),
+             p.updatedAt = :updatedAt,
+             p.version = p.version + 1
+       where p.id = :id
+         and (:expectedVersion is null or p.version = :expectedVersion)
+      """)
+  int partialUpdate(
+      @Param("id") UUID id,
+      @Param("amount") BigDecimal amount,
+      @Param("currency") String currency,
+      @Param("updatedAt") Instant updatedAt,
+      @Param("expectedVersion") Long expectedVersion);
+
+  @Query("select p.version from Payment p where p.id = :id")
+  Optional<Long> findVersionById(@Param("id") UUID id);
+}
@@ -0,0 +1,278 @@
+package com.example.idempotency.idempotency_service.services;
+
+import ch.qos.logback.core.util.StringUtil;
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.common.IdempotentEndpoint;
+import com.example.idempotency.idempotency_service.common.IdempotentEndpointRegistry;
+import com.example.idempotency.idempotency_service.common.RequestFingerprinter;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.controllers.PaymentController;
+import com.example.idempotency.idempotency_service.dtos.BatchPaymentItemDto;
+import com.example.idempotency.idempotency_service.dtos.BatchPaymentResultDto;
+import com.example.idempotency.idempotency_service.dtos.MessageDto;
+import com.example.idempotency.idempotency_service.dtos.PaymentDto;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.util.ReflectionUtils;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Creates a batch of payments, each under its own idempotency key. Items are stored under the
+ * single create endpoint's id and TTL, with the response it sends, so where the advice enforces
+ * idempotency a payment created through either one is replayed by the other.
+ */
+@Service
+public class BatchPaymentService {
+
+  private static final Method CREATE_PAYMENT =
+      ReflectionUtils.findMethod(PaymentController.class, "createPayment", PaymentDto.class);
+
+  private final IdempotentEndpointRegistry endpoints;
+  private final IdempotencyService idempotencyService;
+  private final RequestFingerprinter fingerprinter;
+  private final PaymentService paymentService;
+  private final ObjectMapper objectMapper;
+  private final IdempotencyProperties properties;
+  private final TransactionOperations transactions;
+
+  public BatchPaymentService(
+      IdempotentEndpointRegistry endpoints,
+      IdempotencyService idempotencyService,
+      RequestFingerprinter fingerprinter,
+      PaymentService paymentService,
+      ObjectMapper objectMapper,
+      IdempotencyProperties properties,
+      TransactionOperations transactionOperations) {
+    this.endpoints = endpoints;
+    this.idempotencyService = idempotencyService;
+    this.fingerprinter = fingerprinter;
+    this.paymentService = paymentService;
+    this.objectMapper = objectMapper;
+    this.properties = properties;
+    this.transactions =
+        properties.usesBusinessTransaction()
+            ? transactionOperations
+            : TransactionOperations.withoutTransaction();
+  }
+
+  /** Returns one result per item, in request order. */
+  public List<BatchPaymentResultDto> createPayments(List<BatchPaymentItemDto> items) {
+    validate(items);
+    IdempotentEndpoint create = createEndpoint();
+    Map<IdempotencyCacheKey, BatchPaymentResultDto> results = new HashMap<>();
+    Map<IdempotencyCacheKey, RequestFingerprint> requestHashes = new LinkedHashMap<>();
+    for (BatchPaymentItemDto item : items) {
+      IdempotencyCacheKey cacheKey = cacheKey(create, item);
+      try {
+        paymentService.validate(item.getPayment());
+      } catch (IdempotancyException ex) {
+        results.put(cacheKey, error(item, HttpStatus.BAD_REQUEST, ex.getMessage()));
+        continue;
+      }
+      requestHashes.put(cacheKey, fingerprinter.fingerprint(new Object[] {item.getPayment()}));
+    }
+
+    // One store round trip for every key, only the misses are reserved one by one
+    Map<IdempotencyCacheKey, IdempotencyModel> completed =
+        idempotencyService.getCachedResponses(requestHashes.keySet());
+    Map<IdempotencyCacheKey, IdempotencyService.Reservation> acquired = new LinkedHashMap<>();
+    Map<IdempotencyCacheKey, IdempotencyService.Reservation> inFlight = new HashMap<>();
+    for (Map.Entry<IdempotencyCacheKey, RequestFingerprint> entry : requestHashes.entrySet()) {
+      if (completed.containsKey(entry.getKey())) {
+        continue;
+      }
+      IdempotencyService.Reservation reservation =
+          idempotencyService.reserve(entry.getKey(), entry.getValue());
+      if (reservation.acquired()) {
+        acquired.put(entry.getKey(), reservation);
+      } else if (reservation.cached() != null) {
+        completed.put(entry.getKey(), reservation.cached());
+      } else {
+        inFlight.put(entry.getKey(), reservation);
+      }
+    }
+
+    Map<IdempotencyCacheKey, IdempotencyModel> stored = Map.of();
+    try {
+      stored =
+          transactions.execute(
+              status -> createAndStore(create, items, acquired, requestHashes, results));
+    } finally {
+      for (Map.Entry<IdempotencyCacheKey, IdempotencyService.Reservation> entry :
+          acquired.entrySet()) {
+        idempotencyService.release(entry.getKey(), entry.getValue(), stored.get(entry.getKey()));
+      }
+    }
+
+    long deadline = System.nanoTime() + properties.getInFlight().getWaitTimeout().toNanos();
+    for (Map.Entry<IdempotencyCacheKey, IdempotencyService.Reservation> entry :
+        inFlight.entrySet()) {
+      IdempotencyModel model = awaitInFlight(entry.getValue(), deadline);
+      if (model != null) {
+        completed.put(entry.getKey(), model);
+      }
+    }
+
+    List<BatchPaymentResultDto> response = new ArrayList<>(items.size());
+    for (BatchPaymentItemDto item : items) {
+      IdempotencyCacheKey cacheKey = cacheKey(create, item);
+      BatchPaymentResultDto result = results.get(cacheKey);
+      if (result == null) {
+        IdempotencyModel model = completed.get(cacheKey);
+        result =
+            model == null
+                ? error(
+                    item,
+                    HttpStatus.CONFLICT,
+                    "A request with the same idempotency key is still being processed")
+                : replay(item, model, requestHashes.get(cacheKey));
+      }
+      response.add(result);
+    }
+    return response;
+  }
+
+  private Map<IdempotencyCacheKey, IdempotencyModel> createAndStore(
+      IdempotentEndpoint create,
+      List<BatchPaymentItemDto> items,
+      Map<IdempotencyCacheKey, IdempotencyService.Reservation> acquired,
+      Map<IdempotencyCacheKey, RequestFingerprint> requestHashes,
+      Map<IdempotencyCacheKey, BatchPaymentResultDto> results) {
+    if (acquired.isEmpty()) {
+      return Map.of();
+    }
+    List<BatchPaymentItemDto> toCreate =
+        items.stream().filter(item -> acquired.containsKey(cacheKey(create, item))).toList();
+    List<PaymentDto> created =
+        paymentService.createPayments(
+            toCreate.stream().map(BatchPaymentItemDto::getPayment).toList());
+    Map<IdempotencyCacheKey, ResponseEntity<PaymentDto>> responses = new LinkedHashMap<>();
+    for (int i = 0; i < toCreate.size(); i++) {
+      BatchPaymentItemDto item = toCreate.get(i);
+      IdempotencyCacheKey cacheKey = cacheKey(create, item);
+      responses.put(cacheKey, PaymentController.withETag(created.get(i)));
+      results.put(
+          cacheKey,
+          BatchPaymentResultDto.builder()
+              .idempotencyKey(item.getIdempotencyKey())
+              .status(HttpStatus.OK.value())
+              .payment(created.get(i))
+              .build());
+    }
+    return idempotencyService.putResponses(responses, requestHashes, create.ttl());
+  }
+
+  private IdempotencyModel awaitInFlight(
+      IdempotencyService.Reservation reservation, long deadline) {
+    long remaining = deadline - System.nanoTime();
+    if (properties.getInFlight().getPolicy() == IdempotencyProperties.InFlightPolicy.REJECT
+        || remaining <= 0) {
+      return null;
+    }
+    try {
+      return reservation.result().get(remaining, TimeUnit.NANOSECONDS);
+    } catch (TimeoutException | ExecutionException ex) {
+      return null;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  private BatchPaymentResultDto replay(
+      BatchPaymentItemDto item, IdempotencyModel model, RequestFingerprint requestHash) {
+    if (!model.getRequestHash().equals(requestHash)) {
+      return error(
+          item,
+          HttpStatus.BAD_REQUEST,
+          "Idempotency key conflict: request data does not match previous request with the same key");
+    }
+    if (model.getStatus() / 100 != 2) {
+      // An error the single create endpoint stored, replayed with the message it was answered with
+      return BatchPaymentResultDto.builder()
+          .idempotencyKey(item.getIdempotencyKey())
+          .status(model.getStatus())
+          .replayed(true)
+          .error(errorMessage(model))
+          .build();
+    }
+    return BatchPaymentResultDto.builder()
+        .idempotencyKey(item.getIdempotencyKey())
+        .status(model.getStatus())
+        .replayed(true)
+        .payment(
+            model.getBody() == null
+                ? null
+                : objectMapper.readValue(model.readBody(), PaymentDto.class))
+        .build();
+  }
+
+  private String errorMessage(IdempotencyModel model) {
+    if (model.getBody() != null) {
+      String message = objectMapper.readValue(model.readBody(), MessageDto.class).getMessage();
+      if (message != null) {
+        return message;
+      }
+    }
+    HttpStatus status = HttpStatus.resolve(model.getStatus());
+    return status == null ? null : status.getReasonPhrase();
+  }
+
+  // Settings of the single create endpoint, as resolved from its mapping
+  private IdempotentEndpoint createEndpoint() {
+    IdempotentEndpoint create = endpoints.get(CREATE_PAYMENT);
+    if (create.id() == null) {
+      throw new IllegalStateException(CREATE_PAYMENT + " is not mapped to a single literal path");
+    }
+    return create;
+  }
+
+  private static IdempotencyCacheKey cacheKey(IdempotentEndpoint create, BatchPaymentItemDto item) {
+    return IdempotencyCacheKey.of(create.id(), item.getIdempotencyKey());
+  }
+
+  private static BatchPaymentResultDto error(
+      BatchPaymentItemDto item, HttpStatus status, String message) {
+    return BatchPaymentResultDto.builder()
+        .idempotencyKey(item.getIdempotencyKey())
+        .status(status.value())
+        .error(message)
+        .build();
+  }
+
+  private void validate(List<BatchPaymentItemDto> items) {
+    if (items == null || items.isEmpty()) {
+      throw new IdempotancyException("Batch must contain at least one payment");
+    }
+    Set<String> keys = new HashSet<>();
+    for (BatchPaymentItemDto item : items) {
+      if (StringUtil.isNullOrEmpty(item.getIdempotencyKey()) || item.getPayment() == null) {
+        throw new IdempotancyException("Every batch item needs an idempotency key and a payment");
+      }
+      if (item.getIdempotencyKey().length() > properties.getMaxKeyLength()) {
+        throw new IdempotancyException(
+            "Idempotency key is longer than " + properties.getMaxKeyLength() + " characters");
+      }
+      if (!keys.add(item.getIdempotencyKey())) {
+        throw new IdempotancyException(
+            "Duplicate idempotency key in batch: " + item.getIdempotencyKey());
+      }
+    }
+  }
+}
@@ -1,32 +1,236 @@
 package com.example.idempotency.idempotency_service.services;
 
+import com.example.idempotency.idempotency_service.common.IdempotencyMetrics;
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.CompressedBody;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
 import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import com.example.idempotency.idempotency_service.stores.IdempotencyStore;
+import com.example.idempotency.idempotency_service.stores.IdempotencyStoreStats;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import tools.jackson.databind.ObjectMapper;
 
 @Service
 public class IdempotencyService {
 
-  private final Map<String, IdempotencyModel> cache = new ConcurrentHashMap<>();
+  private final IdempotencyStore store;
+  private final ObjectMapper objectMapper;
+  private final IdempotencyProperties.InFlight inFlightProperties;
+  private final IdempotencyProperties.Compression compression;
+  private final IdempotencyMetrics metrics;
 
-  public IdempotencyModel getCachedResponse(String key) {
-    IdempotencyModel entry = cache.get(key);
-    if (entry == null) {
-      return null;
+  // Keys whose first execution is still running, completed with the stored model or null
+  private final Map<IdempotencyCacheKey, CompletableFuture<IdempotencyModel>> inFlight =
+      new ConcurrentHashMap<>();
+
+  // Watches keys reserved by other instances sharing the store
+  private final ScheduledExecutorService poller =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("idempotency-poll").daemon().factory());
+
+  public IdempotencyService(
+      IdempotencyStore store,
+      ObjectMapper objectMapper,
+      IdempotencyProperties properties,
+      IdempotencyMetrics metrics) {
+    this.store = store;
+    this.objectMapper = objectMapper;
+    this.inFlightProperties = properties.getInFlight();
+    this.compression = properties.getCompression();
+    this.metrics = metrics;
+  }
+
+  public IdempotencyModel getCachedResponse(IdempotencyCacheKey key) {
+    long start = System.nanoTime();
+    IdempotencyModel model = store.get(key);
+    metrics.recordStoreLookup(start);
+    return model == null || model.isPending() ? null : model;
+  }
+
+  /**
+   * Atomically claims {@code cacheKey} for execution. Exactly one caller acquires the key; every
+   * other caller either gets the stored response or the in-flight execution to wait on.
+   */
+  public Reservation reserve(IdempotencyCacheKey cacheKey, RequestFingerprint requestHash) {
+    CompletableFuture<IdempotencyModel> pending = new CompletableFuture<>();
+    CompletableFuture<IdempotencyModel> existing = inFlight.putIfAbsent(cacheKey, pending);
+    if (existing != null) {
+      return new Reservation(null, existing, false);
+    }
+    // Responses are stored before their reservation is released, so this cannot miss one
+    IdempotencyModel current;
+    long start = System.nanoTime();
+    try {
+      current =
+          store.putIfAbsent(
+              cacheKey, IdempotencyModel.pending(requestHash), inFlightProperties.getLease());
+      metrics.recordStoreLookup(start);
+    } catch (RuntimeException ex) {
+      inFlight.remove(cacheKey, pending);
+      pending.complete(null);
+      throw ex;
+    }
+    if (current == null) {
+      return new Reservation(null, pending, true);
     }
-    return entry;
+    if (current.isPending()) {
+      // Another instance owns the key, local duplicates share this watch through the map
+      watchRemote(cacheKey, pending, System.nanoTime() + inFlightProperties.getLease().toNanos());
+      return new Reservation(null, pending, false);
+    }
+    inFlight.remove(cacheKey, pending);
+    pending.complete(current);
+    return new Reservation(current, pending, false);
+  }
+
+  /** Releases an acquired key and hands {@code model} (null if nothing was stored) to waiters. */
+  public void release(
+      IdempotencyCacheKey cacheKey, Reservation reservation, IdempotencyModel model) {
+    try {
+      if (model == null) {
+        store.removePending(cacheKey);
+      }
+    } finally {
+      inFlight.remove(cacheKey, reservation.result());
+      reservation.result().complete(model);
+    }
+  }
+
+  public IdempotencyModel putResponse(
+      IdempotencyCacheKey cacheKey,
+      ResponseEntity<?> responseEntity,
+      RequestFingerprint requestHash,
+      Duration ttl) {
+    return putResponse(cacheKey, toModel(responseEntity, requestHash), ttl);
+  }
+
+  /** Stores a response that was recorded as sent, rather than returned by a handler. */
+  public IdempotencyModel putResponse(
+      IdempotencyCacheKey cacheKey, IdempotencyModel response, Duration ttl) {
+    IdempotencyModel model = compress(response);
+    long start = System.nanoTime();
+    store.put(cacheKey, model, ttl);
+    metrics.recordStoreWrite(start);
+    return model;
   }
 
-  public void putResponse(String cacheKey, ResponseEntity<?> responseEntity, String requestHash) {
-    cache.put(
-        cacheKey,
-        IdempotencyModel.builder()
-            .response(responseEntity.getBody())
-            .requestHash(requestHash)
-            .status(responseEntity.getStatusCode())
-            .headers(responseEntity.getHeaders())
-            .build());
+  /** Completed responses for {@code keys}, keyed by cache key, read in one store call. */
+  public Map<IdempotencyCacheKey, IdempotencyModel> getCachedResponses(
+      Collection<IdempotencyCacheKey> keys) {
+    long start = System.nanoTime();
+    Map<IdempotencyCacheKey, IdempotencyModel> found = new HashMap<>(store.getAll(keys));
+    metrics.recordStoreLookup(start);
+    found.values().removeIf(IdempotencyModel::isPending);
+    return found;
   }
+
+  /**
+   * Stores each response under its cache key in one store call.
+   *
+   * @param requestHashes fingerprint of the request behind each response, by cache key
+   * @return the stored models, by cache key
+   */
+  public Map<IdempotencyCacheKey, IdempotencyModel> putResponses(
+      Map<IdempotencyCacheKey, ? extends ResponseEntity<?>> responses,
+      Map<IdempotencyCacheKey, RequestFingerprint> requestHashes,
+      Duration ttl) {
+    Map<IdempotencyCacheKey, IdempotencyModel> models = new HashMap<>();
+    responses.forEach(
+        (cacheKey, response) ->
+            models.put(cacheKey, compress(toModel(response, requestHashes.get(cacheKey)))));
+    long start = System.nanoTime();
+    store.putAll(models, ttl);
+    metrics.recordStoreWrite(start);
+    return models;
+  }
+
+  private IdempotencyModel toModel(
+      ResponseEntity<?> responseEntity, RequestFingerprint requestHash) {
+    HttpHeaders headers = responseEntity.getHeaders();
+    byte[] body = null;
+    if (responseEntity.getBody() != null) {
+      // Encode once here, replays then write these bytes without going through Jackson again
+      body = objectMapper.writeValueAsBytes(responseEntity.getBody());
+      if (headers.getContentType() == null) {
+        headers = HttpHeaders.copyOf(headers);
+        headers.setContentType(MediaType.APPLICATION_JSON);
+      }
+    }
+    return IdempotencyModel.builder()
+        .requestHash(requestHash)
+        .status(responseEntity.getStatusCode().value())
+        .headers(IdempotencyModel.encodeHeaders(headers))
+        .body(body)
+        .build();
+  }
+
+  /** A copy of {@code model} holding a large enough body deflated, when that is smaller. */
+  private IdempotencyModel compress(IdempotencyModel model) {
+    byte[] body = model.getBody();
+    if (!compression.isEnabled()
+        || model.isCompressed()
+        || body == null
+        || body.length < compression.getMinSize().toBytes()) {
+      return model;
+    }
+    byte[] deflated = CompressedBody.deflate(body, compression.getLevel());
+    metrics.recordCompression(body.length, deflated == null ? body.length : deflated.length);
+    return deflated == null ? model : model.toBuilder().body(deflated).compressed(true).build();
+  }
+
+  public IdempotencyStoreStats stats() {
+    return store.stats();
+  }
+
+  @PreDestroy
+  public void close() {
+    poller.shutdownNow();
+  }
+
+  private void watchRemote(
+      IdempotencyCacheKey cacheKey,
+      CompletableFuture<IdempotencyModel> pending,
+      long leaseDeadline) {
+    poller.schedule(
+        () -> {
+          IdempotencyModel current = null;
+          try {
+            current = store.get(cacheKey);
+          } catch (RuntimeException ex) {
+            // Treat a failed read like a released key so waiters compete for it again
+          }
+          if (current != null && current.isPending() && System.nanoTime() < leaseDeadline) {
+            watchRemote(cacheKey, pending, leaseDeadline);
+            return;
+          }
+          inFlight.remove(cacheKey, pending);
+          pending.complete(current == null || current.isPending() ? null : current);
+        },
+        inFlightProperties.getPollInterval().toNanos(),
+        TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Outcome of {@link #reserve(IdempotencyCacheKey, RequestFingerprint)}.
+   *
+   * @param cached the stored response when the key already completed
+   * @param result completes with the response of the execution that owns the key
+   * @param acquired whether the caller owns the key and must execute and then {@link #release}
+   */
+  public record Reservation(
+      IdempotencyModel cached, CompletableFuture<IdempotencyModel> result, boolean acquired) {}
 }
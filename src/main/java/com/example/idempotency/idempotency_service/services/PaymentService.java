@@ -1,12 +1,13 @@
 package com.example.idempotency.idempotency_service.services;
 
 import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.common.exceptions.PaymentVersionConflictException;
 import com.example.idempotency.idempotency_service.dtos.PaymentDto;
 import com.example.idempotency.idempotency_service.models.Payment;
 import com.example.idempotency.idempotency_service.repositories.PaymentRepository;
 import jakarta.transaction.Transactional;
 import java.time.Instant;
-import java.util.Optional;
+import java.util.List;
 import java.util.UUID;
 import org.springframework.stereotype.Service;
 
@@ -19,37 +20,90 @@ public class PaymentService {
     this.paymentRepository = paymentRepository;
   }
 
-  @Transactional
-  public PaymentDto createPayment(PaymentDto paymentDto) {
+  public void validate(PaymentDto paymentDto) {
     if (paymentDto.getAmount() == null || paymentDto.getCurrency() == null) {
       throw new IdempotancyException("Amount and Currency are required fields");
     }
+  }
+
+  @Transactional
+  public PaymentDto createPayment(PaymentDto paymentDto) {
+    validate(paymentDto);
+    // Flushed once at commit, which runs before the advice stores the response
     Payment savedPayment =
-        this.paymentRepository.saveAndFlush(
+        this.paymentRepository.save(
             Payment.builder()
                 .amount(paymentDto.getAmount())
                 .currency(paymentDto.getCurrency())
                 .createdAt(Instant.now())
                 .build());
-    return PaymentDto.builder()
-        .amount(savedPayment.getAmount())
-        .currency(savedPayment.getCurrency())
-        .build();
+    return toDto(savedPayment);
+  }
+
+  /** Inserts all payments in the commit flush, so Hibernate can send them as JDBC batches. */
+  @Transactional
+  public List<PaymentDto> createPayments(List<PaymentDto> paymentDtos) {
+    paymentDtos.forEach(this::validate);
+    Instant now = Instant.now();
+    List<Payment> savedPayments =
+        this.paymentRepository.saveAll(
+            paymentDtos.stream()
+                .map(
+                    paymentDto ->
+                        Payment.builder()
+                            .amount(paymentDto.getAmount())
+                            .currency(paymentDto.getCurrency())
+                            .createdAt(now)
+                            .build())
+                .toList());
+    return savedPayments.stream().map(PaymentService::toDto).toList();
   }
 
   @Transactional
   public PaymentDto partialUpdatePayment(String id, PaymentDto paymentDto) {
-    Payment payment =
+    return partialUpdatePayment(id, paymentDto, null);
+  }
+
+  /**
+   * Applies the non-null fields of {@code paymentDto} without taking a row lock.
+   *
+   * @param expectedVersion version the caller last saw, null to update whatever is current
+   * @throws PaymentVersionConflictException if the payment is no longer at {@code expectedVersion}
+   */
+  @Transactional
+  public PaymentDto partialUpdatePayment(String id, PaymentDto paymentDto, Long expectedVersion) {
+    UUID paymentId = UUID.fromString(id);
+    // One conditional update instead of reading the row, changing it and writing it back
+    int updated =
+        this.paymentRepository.partialUpdate(
+            paymentId,
+            paymentDto.getAmount(),
+            paymentDto.getCurrency(),
+            Instant.now(),
+            expectedVersion);
+    if (updated == 0) {
+      long currentVersion =
+          this.paymentRepository
+              .findVersionById(paymentId)
+              .orElseThrow(() -> new IdempotancyException("Payment not found"));
+      throw new PaymentVersionConflictException(
+          "Payment was modified by another request", currentVersion);
+    }
+    // Read back in the same transaction, a portable update cannot return the row it changed
+    Payment updatedPayment =
         this.paymentRepository
-            .findById(UUID.fromString(id))
+            .findById(paymentId)
             .orElseThrow(() -> new IdempotancyException("Payment not found"));
-    Optional.ofNullable(paymentDto.getAmount()).ifPresent(payment::setAmount);
-    Optional.ofNullable(paymentDto.getCurrency()).ifPresent(payment::setCurrency);
-    Payment updatedPayment = this.paymentRepository.saveAndFlush(payment);
+    return toDto(updatedPayment);
+  }
+
+  // The same for every endpoint, so a response replayed through another one is identical
+  private static PaymentDto toDto(Payment payment) {
     return PaymentDto.builder()
-        .id(updatedPayment.getId())
-        .amount(updatedPayment.getAmount())
-        .currency(updatedPayment.getCurrency())
+        .id(payment.getId())
+        .amount(payment.getAmount())
+        .currency(payment.getCurrency())
+        .version(payment.getVersion())
         .build();
   }
 }
@@ -0,0 +1,79 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encoding of an {@link IdempotencyModel} for stores that keep records outside the
+ * heap. Models already hold their response encoded, so this only frames the parts together.
+ */
+public class IdempotencyRecordCodec {
+
+  private static final byte FORMAT_VERSION = 3;
+  private static final byte FLAG_PENDING = 1;
+  private static final byte FLAG_BODY = 2;
+  private static final byte FLAG_COMPRESSED = 4;
+
+  // version, flags, fingerprint
+  private static final int PREFIX_LENGTH = 2 + 2 * Long.BYTES;
+
+  public byte[] encode(IdempotencyModel model) {
+    boolean pending = model.isPending();
+    byte[] headers = model.getHeaders();
+    byte[] body = model.getBody();
+    int length = PREFIX_LENGTH;
+    if (!pending) {
+      length += Short.BYTES + Integer.BYTES + headers.length;
+      length += body == null ? 0 : Integer.BYTES + body.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    buffer.put(FORMAT_VERSION);
+    buffer.put(
+        (byte)
+            ((pending ? FLAG_PENDING : 0)
+                | (body != null ? FLAG_BODY : 0)
+                | (model.isCompressed() ? FLAG_COMPRESSED : 0)));
+    buffer.putLong(model.getRequestHash().high());
+    buffer.putLong(model.getRequestHash().low());
+    if (!pending) {
+      buffer.putShort((short) model.getStatus());
+      buffer.putInt(headers.length);
+      buffer.put(headers);
+      if (body != null) {
+        buffer.putInt(body.length);
+        buffer.put(body);
+      }
+    }
+    return buffer.array();
+  }
+
+  public IdempotencyModel decode(byte[] record) {
+    ByteBuffer buffer = ByteBuffer.wrap(record);
+    byte version = buffer.get();
+    if (version != FORMAT_VERSION) {
+      throw new IdempotancyException("Unsupported idempotency record format " + version);
+    }
+    byte flags = buffer.get();
+    RequestFingerprint requestHash = new RequestFingerprint(buffer.getLong(), buffer.getLong());
+    if ((flags & FLAG_PENDING) != 0) {
+      return IdempotencyModel.pending(requestHash);
+    }
+    int status = buffer.getShort();
+    byte[] headers = new byte[buffer.getInt()];
+    buffer.get(headers);
+    byte[] body = null;
+    if ((flags & FLAG_BODY) != 0) {
+      body = new byte[buffer.getInt()];
+      buffer.get(body);
+    }
+    return IdempotencyModel.builder()
+        .requestHash(requestHash)
+        .status(status)
+        .headers(headers)
+        .body(body)
+        .compressed((flags & FLAG_COMPRESSED) != 0)
+        .build();
+  }
+}
@@ -0,0 +1,59 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Storage SPI behind {@code IdempotencyService}.
+ *
+ * <p>A key holds either a completed response or a {@link IdempotencyModel#isPending() pending}
+ * reservation. Implementations that are shared between instances must make {@link #putIfAbsent}
+ * atomic across all of them, since it is what guarantees a key executes once.
+ */
+public interface IdempotencyStore extends AutoCloseable {
+
+  /** Returns the live record for {@code key}, pending or completed, or null. */
+  IdempotencyModel get(IdempotencyCacheKey key);
+
+  /**
+   * Stores {@code model} unless a live record already exists for {@code key}.
+   *
+   * @return null if {@code model} was stored, otherwise the existing record
+   */
+  IdempotencyModel putIfAbsent(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl);
+
+  /** Stores {@code model}, replacing any existing record. */
+  void put(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl);
+
+  /**
+   * Returns the live records for {@code keys}, pending or completed, keyed by key. Absent keys are
+   * left out. Shared stores should override this with a single round trip.
+   */
+  default Map<IdempotencyCacheKey, IdempotencyModel> getAll(Collection<IdempotencyCacheKey> keys) {
+    Map<IdempotencyCacheKey, IdempotencyModel> found = new HashMap<>();
+    for (IdempotencyCacheKey key : keys) {
+      IdempotencyModel model = get(key);
+      if (model != null) {
+        found.put(key, model);
+      }
+    }
+    return found;
+  }
+
+  /** Stores every model, replacing existing records. */
+  default void putAll(Map<IdempotencyCacheKey, IdempotencyModel> models, Duration ttl) {
+    models.forEach((key, model) -> put(key, model, ttl));
+  }
+
+  /** Removes the record for {@code key} if it is still a pending reservation. */
+  void removePending(IdempotencyCacheKey key);
+
+  IdempotencyStoreStats stats();
+
+  @Override
+  default void close() {}
+}
@@ -0,0 +1,50 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@Configuration
+public class IdempotencyStoreConfiguration {
+
+  @Bean
+  public IdempotencyStore idempotencyStore(
+      IdempotencyProperties properties,
+      ObjectProvider<JdbcTemplate> jdbcTemplate,
+      MeterRegistry meterRegistry) {
+    IdempotencyProperties.Store store = properties.getStore();
+    return switch (store.getType()) {
+      case MEMORY ->
+          store.getMemory().getShards() > 1
+              ? new ShardedIdempotencyStore(store.getMemory())
+              : new InMemoryIdempotencyStore(store.getMemory());
+      case OFF_HEAP ->
+          new OffHeapIdempotencyStore(new IdempotencyRecordCodec(), store.getOffHeap());
+      case JOURNAL -> new JournalIdempotencyStore(new IdempotencyRecordCodec(), store.getJournal());
+      case JDBC ->
+          shared(
+              new JdbcIdempotencyStore(
+                  jdbcTemplate.getObject(), new IdempotencyRecordCodec(), store.getJdbc()),
+              store,
+              meterRegistry);
+    };
+  }
+
+  @Bean
+  public IdempotencyStoreMetrics idempotencyStoreMetrics(IdempotencyStore idempotencyStore) {
+    return new IdempotencyStoreMetrics(idempotencyStore);
+  }
+
+  private static IdempotencyStore shared(
+      IdempotencyStore shared, IdempotencyProperties.Store store, MeterRegistry meterRegistry) {
+    if (store.getWriteBehind().isEnabled()) {
+      shared = new WriteBehindIdempotencyStore(shared, store.getWriteBehind(), meterRegistry);
+    }
+    return store.getNearCache().isEnabled()
+        ? new TwoTierIdempotencyStore(shared, store.getNearCache())
+        : shared;
+  }
+}
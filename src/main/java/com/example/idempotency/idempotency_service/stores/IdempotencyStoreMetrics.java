@@ -0,0 +1,62 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Publishes {@link IdempotencyStore#stats()} as meters. A scrape reads every meter in quick
+ * succession, so the stats are read once and shared by the meters for a moment rather than read
+ * once per meter.
+ */
+public class IdempotencyStoreMetrics implements MeterBinder {
+
+  private static final long MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final IdempotencyStore store;
+  private volatile Snapshot snapshot;
+
+  public IdempotencyStoreMetrics(IdempotencyStore store) {
+    this.store = store;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("idempotency.store.size", this, read(IdempotencyStoreStats::size))
+        .description("Keys held by the idempotency store")
+        .register(registry);
+    Gauge.builder("idempotency.store.bytes", this, read(IdempotencyStoreStats::weight))
+        .description("Bytes held by the idempotency store")
+        .baseUnit("bytes")
+        .register(registry);
+    FunctionCounter.builder(
+            "idempotency.store.evictions", this, read(IdempotencyStoreStats::evictions))
+        .description("Live keys dropped to stay within the store's bounds")
+        .register(registry);
+    FunctionCounter.builder(
+            "idempotency.store.expirations", this, read(IdempotencyStoreStats::expirations))
+        .description("Keys dropped after their TTL")
+        .register(registry);
+  }
+
+  private static ToDoubleFunction<IdempotencyStoreMetrics> read(
+      ToDoubleFunction<IdempotencyStoreStats> value) {
+    return metrics -> value.applyAsDouble(metrics.stats());
+  }
+
+  private IdempotencyStoreStats stats() {
+    Snapshot current = snapshot;
+    long now = System.nanoTime();
+    if (current == null || now - current.readAt() > MAX_AGE_NANOS) {
+      // Concurrent scrapes may both read, which only costs one extra read
+      current = new Snapshot(store.stats(), now);
+      snapshot = current;
+    }
+    return current.stats();
+  }
+
+  private record Snapshot(IdempotencyStoreStats stats, long readAt) {}
+}
@@ -0,0 +1,11 @@
+package com.example.idempotency.idempotency_service.stores;
+
+/** Point-in-time counters of an idempotency store, used to size capacity and TTL. */
+public record IdempotencyStoreStats(
+    long hits, long misses, long evictions, long expirations, long size, long weight) {
+
+  public double hitRate() {
+    long requests = hits + misses;
+    return requests == 0 ? 0.0 : (double) hits / requests;
+  }
+}
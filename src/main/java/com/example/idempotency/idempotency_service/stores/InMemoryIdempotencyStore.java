@@ -0,0 +1,393 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-memory idempotency store.
+ *
+ * <p>Entries are admitted into a segmented LRU: new keys land in a probation segment and are
+ * promoted to a protected segment on their first hit, so one-off keys from a burst of first-time
+ * requests cannot flush out the keys clients are actively retrying. Both the entry count and the
+ * estimated entry weight are bounded, every entry carries its own TTL, and expired entries are
+ * purged lazily on read as well as by a background sweeper. The sweeper advances a {@link
+ * TimingWheel} one {@code expiry-interval} tick at a time, so each run only touches the entries
+ * that expired since the last one instead of scanning every key.
+ *
+ * <p>With a {@code snapshot} path, live responses are written to it on close and loaded back, into
+ * a map sized for them, when the next store starts.
+ */
+public class InMemoryIdempotencyStore implements IdempotencyStore {
+
+  private static final double PROTECTED_RATIO = 0.8;
+
+  // Rough per-entry overhead of the map node, the policy node, the model and its fingerprint
+  private static final long ENTRY_OVERHEAD = 192;
+
+  private final Map<IdempotencyCacheKey, Node> data;
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final AccessOrder probation = new AccessOrder();
+  private final AccessOrder protectedSegment = new AccessOrder();
+  private final TimingWheel<Node> expiryWheel;
+
+  private final long maximumSize;
+  private final long maximumWeight;
+  private final long protectedMaximumWeight;
+  private final Clock clock;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  // Guarded by evictionLock, as is expiryWheel
+  private long weightedSize;
+  private long protectedWeight;
+
+  private final ScheduledExecutorService sweeper;
+  private final Path snapshot;
+
+  public InMemoryIdempotencyStore(IdempotencyProperties.Memory properties) {
+    this(properties, Clock.systemUTC());
+  }
+
+  InMemoryIdempotencyStore(IdempotencyProperties.Memory properties, Clock clock) {
+    this(properties, clock, true);
+  }
+
+  /** Without {@code sweep}, expired entries are only purged on read and by the owner's sweeps. */
+  InMemoryIdempotencyStore(IdempotencyProperties.Memory properties, Clock clock, boolean sweep) {
+    this(properties, clock, sweep, 0);
+  }
+
+  /**
+   * @param expectedEntries entries an owner is about to restore, so the map is sized for them up
+   *     front; the store's own snapshot, if it has one, is sized from its header instead
+   */
+  InMemoryIdempotencyStore(
+      IdempotencyProperties.Memory properties, Clock clock, boolean sweep, long expectedEntries) {
+    this.snapshot = properties.getSnapshot();
+    InMemorySnapshot.Reader reader = InMemorySnapshot.open(snapshot);
+    this.data =
+        new ConcurrentHashMap<>(
+            (int)
+                Math.min(
+                    reader == null ? expectedEntries : reader.count(),
+                    properties.getMaximumSize()));
+    this.maximumSize = properties.getMaximumSize();
+    this.maximumWeight = properties.getMaximumWeight().toBytes();
+    this.protectedMaximumWeight = (long) (maximumWeight * PROTECTED_RATIO);
+    this.clock = clock;
+    this.expiryWheel = new TimingWheel<>(properties.getExpiryInterval(), clock.millis());
+    if (sweep) {
+      this.sweeper =
+          Executors.newSingleThreadScheduledExecutor(
+              Thread.ofPlatform().name("idempotency-expiry").daemon().factory());
+      long interval = properties.getExpiryInterval().toMillis();
+      this.sweeper.scheduleWithFixedDelay(
+          this::expireEntries, interval, interval, TimeUnit.MILLISECONDS);
+    } else {
+      this.sweeper = null;
+    }
+    if (reader != null) {
+      InMemorySnapshot.load(snapshot, reader, clock.millis(), this::restore);
+    }
+  }
+
+  @Override
+  public IdempotencyModel get(IdempotencyCacheKey key) {
+    Node node = data.get(key);
+    if (node == null) {
+      misses.increment();
+      return null;
+    }
+    if (node.isExpired(clock.millis())) {
+      removeExpired(node);
+      misses.increment();
+      return null;
+    }
+    // Reordering is best effort: a reader never waits behind a writer just to bump recency
+    if (evictionLock.tryLock()) {
+      try {
+        onAccess(node);
+      } finally {
+        evictionLock.unlock();
+      }
+    }
+    hits.increment();
+    return node.value;
+  }
+
+  @Override
+  public IdempotencyModel putIfAbsent(
+      IdempotencyCacheKey key, IdempotencyModel value, Duration ttl) {
+    Node node = newNode(key, value, ttl);
+    evictionLock.lock();
+    try {
+      Node existing = data.get(key);
+      if (existing != null && !existing.isExpired(clock.millis())) {
+        return existing.value;
+      }
+      link(node);
+      return null;
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void put(IdempotencyCacheKey key, IdempotencyModel value, Duration ttl) {
+    Node node = newNode(key, value, ttl);
+    evictionLock.lock();
+    try {
+      link(node);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  @Override
+  public void removePending(IdempotencyCacheKey key) {
+    evictionLock.lock();
+    try {
+      Node node = data.get(key);
+      if (node != null && node.value.isPending() && data.remove(key, node)) {
+        unlink(node);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  public void remove(IdempotencyCacheKey key) {
+    evictionLock.lock();
+    try {
+      Node node = data.remove(key);
+      if (node != null) {
+        unlink(node);
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  public long size() {
+    return data.size();
+  }
+
+  @Override
+  public IdempotencyStoreStats stats() {
+    return new IdempotencyStoreStats(
+        hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), data.size(), weightedSize);
+  }
+
+  @Override
+  public void close() {
+    if (sweeper != null) {
+      sweeper.shutdownNow();
+    }
+    if (snapshot != null) {
+      InMemorySnapshot.write(snapshot, this::writeTo);
+    }
+  }
+
+  /** Adds an entry read back from a snapshot, keeping the absolute expiry it was written with. */
+  void restore(IdempotencyCacheKey key, IdempotencyModel value, long expiresAt) {
+    Node node = new Node(key, value, weigh(key, value), expiresAt);
+    evictionLock.lock();
+    try {
+      link(node);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /**
+   * Writes live responses least recently used first, probation before protected, so restoring them
+   * in order leaves the most valuable at the front of the access order.
+   */
+  void writeTo(InMemorySnapshot.Writer writer) throws IOException {
+    evictionLock.lock();
+    try {
+      long now = clock.millis();
+      for (AccessOrder segment : new AccessOrder[] {probation, protectedSegment}) {
+        for (Node node = segment.head.prev; node != segment.head; node = node.prev) {
+          if (!node.value.isPending() && !node.isExpired(now)) {
+            writer.write(node.key, node.value, node.expiresAt);
+          }
+        }
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private Node newNode(IdempotencyCacheKey key, IdempotencyModel value, Duration ttl) {
+    return new Node(key, value, weigh(key, value), clock.millis() + ttl.toMillis());
+  }
+
+  // Caller holds evictionLock
+  private void link(Node node) {
+    Node previous = data.put(node.key, node);
+    if (previous != null) {
+      unlink(previous);
+    }
+    probation.addFirst(node);
+    node.segment = probation;
+    weightedSize += node.weight;
+    expiryWheel.schedule(node);
+    evict();
+  }
+
+  void expireEntries() {
+    evictionLock.lock();
+    try {
+      expiryWheel.advance(
+          clock.millis(),
+          node -> {
+            if (data.remove(node.key, node)) {
+              expirations.increment();
+            }
+            unlink(node);
+          });
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private void removeExpired(Node node) {
+    evictionLock.lock();
+    try {
+      if (data.remove(node.key, node)) {
+        unlink(node);
+        expirations.increment();
+      }
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  private void onAccess(Node node) {
+    if (node.segment == protectedSegment) {
+      protectedSegment.moveToFront(node);
+    } else if (node.segment == probation) {
+      probation.unlink(node);
+      protectedSegment.addFirst(node);
+      node.segment = protectedSegment;
+      protectedWeight += node.weight;
+      while (protectedWeight > protectedMaximumWeight) {
+        Node demoted = protectedSegment.head.prev;
+        protectedSegment.unlink(demoted);
+        protectedWeight -= demoted.weight;
+        probation.addFirst(demoted);
+        demoted.segment = probation;
+      }
+    }
+  }
+
+  private void evict() {
+    while (data.size() > maximumSize || weightedSize > maximumWeight) {
+      Node victim = probation.isEmpty() ? protectedSegment.head.prev : probation.head.prev;
+      if (victim == protectedSegment.head) {
+        return;
+      }
+      if (data.remove(victim.key, victim)) {
+        evictions.increment();
+      }
+      unlink(victim);
+    }
+  }
+
+  private void unlink(Node node) {
+    if (node.segment == null) {
+      return;
+    }
+    if (node.segment == protectedSegment) {
+      protectedWeight -= node.weight;
+    }
+    node.segment.unlink(node);
+    node.segment = null;
+    weightedSize -= node.weight;
+    expiryWheel.cancel(node);
+  }
+
+  private static long weigh(IdempotencyCacheKey key, IdempotencyModel value) {
+    // Endpoint ids are shared, so only a resource or key held as text adds to the fixed overhead
+    long weight = ENTRY_OVERHEAD + 2L * key.textLength();
+    if (value.getHeaders() != null) {
+      weight += value.getHeaders().length;
+    }
+    if (value.getBody() != null) {
+      weight += value.getBody().length;
+    }
+    return weight;
+  }
+
+  private static final class Node extends TimingWheel.Timer {
+
+    final IdempotencyCacheKey key;
+    final IdempotencyModel value;
+    final long weight;
+
+    Node prev;
+    Node next;
+    AccessOrder segment;
+
+    Node(IdempotencyCacheKey key, IdempotencyModel value, long weight, long expiresAt) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(long now) {
+      return now >= expiresAt;
+    }
+  }
+
+  /** Intrusive doubly linked list ordered from most to least recently used. */
+  private static final class AccessOrder {
+
+    final Node head = new Node(null, null, 0, Long.MAX_VALUE);
+
+    AccessOrder() {
+      head.prev = head;
+      head.next = head;
+    }
+
+    boolean isEmpty() {
+      return head.next == head;
+    }
+
+    void addFirst(Node node) {
+      node.prev = head;
+      node.next = head.next;
+      head.next.prev = node;
+      head.next = node;
+    }
+
+    void unlink(Node node) {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = null;
+      node.next = null;
+    }
+
+    void moveToFront(Node node) {
+      unlink(node);
+      addFirst(node);
+    }
+  }
+}
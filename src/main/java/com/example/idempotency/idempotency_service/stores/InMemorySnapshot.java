@@ -0,0 +1,212 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Snapshot file an in-memory store writes on shutdown and loads on startup, so a deploy does not
+ * empty the cache that in-progress client retries depend on.
+ *
+ * <p>A header carrying the entry count, so the store can be sized before it is filled, then the
+ * key, absolute expiry and {@link IdempotencyRecordCodec} record of each entry, least recently used
+ * first. Both directions stream through a buffer. The file is written beside its target and moved
+ * into place once complete, so a crash mid-write leaves the previous snapshot intact.
+ */
+@Slf4j
+final class InMemorySnapshot {
+
+  private static final int MAGIC = 0x49445350;
+  private static final byte FORMAT_VERSION = 1;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // Offset of the entry count, patched in once every entry is written
+  private static final long COUNT_OFFSET = Integer.BYTES + 1;
+
+  private InMemorySnapshot() {}
+
+  @FunctionalInterface
+  interface Loader {
+    void load(IdempotencyCacheKey key, IdempotencyModel model, long expiresAt);
+  }
+
+  @FunctionalInterface
+  interface Source {
+    void writeTo(Writer writer) throws IOException;
+  }
+
+  /** Opens the snapshot at {@code path}, or returns null when there is none or it is unreadable. */
+  static Reader open(Path path) {
+    if (path == null || !Files.exists(path)) {
+      return null;
+    }
+    try {
+      return new Reader(path);
+    } catch (IOException ex) {
+      log.warn("Ignoring idempotency snapshot {} that cannot be read", path, ex);
+      return null;
+    }
+  }
+
+  /** Loads what {@code reader} holds, keeping the entries read before any damage to the file. */
+  static void load(Path path, Reader reader, long now, Loader loader) {
+    long start = System.nanoTime();
+    try (reader) {
+      long loaded = reader.load(now, loader);
+      log.info(
+          "Loaded {} of {} idempotency entries from {} in {} ms",
+          loaded,
+          reader.count(),
+          path,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (IOException | RuntimeException ex) {
+      log.warn("Idempotency snapshot {} is damaged, keeping the entries before it", path, ex);
+    }
+  }
+
+  static void write(Path path, Source source) {
+    long start = System.nanoTime();
+    try (Writer writer = new Writer(path)) {
+      source.writeTo(writer);
+      writer.commit();
+      log.info(
+          "Wrote {} idempotency entries to {} in {} ms",
+          writer.count(),
+          path,
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (IOException | RuntimeException ex) {
+      log.warn("Could not write idempotency snapshot {}", path, ex);
+    }
+  }
+
+  static final class Writer implements Closeable {
+
+    private final Path target;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private final IdempotencyRecordCodec codec = new IdempotencyRecordCodec();
+    private long count;
+    private boolean committed;
+
+    Writer(Path target) throws IOException {
+      this.target = target;
+      Path directory = target.toAbsolutePath().getParent();
+      Files.createDirectories(directory);
+      this.temporary = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+      this.channel = FileChannel.open(temporary, StandardOpenOption.WRITE);
+      this.out =
+          new DataOutputStream(
+              new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+      out.writeInt(MAGIC);
+      out.writeByte(FORMAT_VERSION);
+      out.writeLong(0);
+    }
+
+    void write(IdempotencyCacheKey key, IdempotencyModel model, long expiresAt) throws IOException {
+      byte[] keyBytes = key.toBytes();
+      byte[] record = codec.encode(model);
+      out.writeShort(keyBytes.length);
+      out.write(keyBytes);
+      out.writeLong(expiresAt);
+      out.writeInt(record.length);
+      out.write(record);
+      count++;
+    }
+
+    void commit() throws IOException {
+      out.flush();
+      channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, count), COUNT_OFFSET);
+      channel.force(true);
+      out.close();
+      Files.move(
+          temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      committed = true;
+    }
+
+    long count() {
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!committed) {
+        out.close();
+        Files.deleteIfExists(temporary);
+      }
+    }
+  }
+
+  static final class Reader implements Closeable {
+
+    private final DataInputStream in;
+    private final long count;
+    private final IdempotencyRecordCodec codec = new IdempotencyRecordCodec();
+
+    Reader(Path path) throws IOException {
+      this.in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+      try {
+        if (in.readInt() != MAGIC || in.readByte() != FORMAT_VERSION) {
+          throw new IOException("Unsupported idempotency snapshot " + path);
+        }
+        this.count = in.readLong();
+      } catch (IOException ex) {
+        in.close();
+        throw ex;
+      }
+    }
+
+    /** Entries in the snapshot, including those that have expired since it was written. */
+    long count() {
+      return count;
+    }
+
+    /**
+     * Hands every entry still live at {@code now} to {@code loader}, least recently used first.
+     *
+     * @return the number of entries loaded
+     */
+    long load(long now, Loader loader) throws IOException {
+      long loaded = 0;
+      byte[] record = new byte[256];
+      for (long i = 0; i < count; i++) {
+        byte[] keyBytes = in.readNBytes(in.readUnsignedShort());
+        long expiresAt = in.readLong();
+        int length = in.readInt();
+        if (expiresAt <= now) {
+          in.skipNBytes(length);
+          continue;
+        }
+        if (record.length < length) {
+          record = new byte[Math.max(length, record.length * 2)];
+        }
+        in.readFully(record, 0, length);
+        // The codec copies out what it decodes and ignores bytes past the record, so the buffer
+        // is reused
+        loader.load(IdempotencyCacheKey.fromBytes(keyBytes), codec.decode(record), expiresAt);
+        loaded++;
+      }
+      return loaded;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+/**
+ * Idempotency store backed by the application datasource, so keys survive restarts and are shared
+ * by every instance pointing at the same database. Reservations rely on the primary key of {@code
+ * idempotency_records} for atomicity; expired rows are ignored on read and purged in the background
+ * through the {@code expires_at} index. Keys are stored in their compact binary form. The size in
+ * {@link #stats()} is the row count as of the last purge, so reading it never queries the table.
+ */
+@Slf4j
+public class JdbcIdempotencyStore implements IdempotencyStore {
+
+  private static final String SCHEMA = "db/idempotency-schema.sql";
+
+  private static final String SELECT =
+      "SELECT record FROM idempotency_records WHERE cache_key = ? AND expires_at > ?";
+  private static final String SELECT_MANY =
+      "SELECT cache_key, record FROM idempotency_records WHERE cache_key IN (%s) AND expires_at > ?";
+  // Keeps IN lists within what every supported database accepts
+  private static final int MAX_IN_LIST = 500;
+  private static final String INSERT =
+      "INSERT INTO idempotency_records (cache_key, pending, record, expires_at) VALUES (?, ?, ?, ?)";
+  private static final String UPDATE =
+      "UPDATE idempotency_records SET pending = ?, record = ?, expires_at = ? WHERE cache_key = ?";
+  private static final String DELETE_EXPIRED_KEY =
+      "DELETE FROM idempotency_records WHERE cache_key = ? AND expires_at <= ?";
+  private static final String DELETE_PENDING =
+      "DELETE FROM idempotency_records WHERE cache_key = ? AND pending = TRUE";
+  private static final String DELETE_EXPIRED =
+      "DELETE FROM idempotency_records WHERE expires_at <= ?";
+  private static final String COUNT = "SELECT COUNT(*) FROM idempotency_records";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final IdempotencyRecordCodec codec;
+  private final Clock clock;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+  private volatile long rows;
+
+  private final ScheduledExecutorService purger;
+
+  public JdbcIdempotencyStore(
+      JdbcTemplate jdbcTemplate,
+      IdempotencyRecordCodec codec,
+      IdempotencyProperties.Jdbc properties) {
+    this(jdbcTemplate, codec, properties, Clock.systemUTC());
+  }
+
+  JdbcIdempotencyStore(
+      JdbcTemplate jdbcTemplate,
+      IdempotencyRecordCodec codec,
+      IdempotencyProperties.Jdbc properties,
+      Clock clock) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.codec = codec;
+    this.clock = clock;
+    if (properties.isInitializeSchema()) {
+      new ResourceDatabasePopulator(new ClassPathResource(SCHEMA))
+          .execute(jdbcTemplate.getDataSource());
+    }
+    this.purger =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("idempotency-purge").daemon().factory());
+    long interval = properties.getPurgeInterval().toMillis();
+    // Counted off the caller's thread, so startup does not wait on a scan of the table
+    this.purger.execute(this::countRows);
+    this.purger.scheduleWithFixedDelay(
+        this::purgeExpired, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public IdempotencyModel get(IdempotencyCacheKey key) {
+    List<byte[]> records =
+        jdbcTemplate.query(SELECT, (rs, rowNum) -> rs.getBytes(1), key.toBytes(), clock.millis());
+    if (records.isEmpty()) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return codec.decode(records.getFirst());
+  }
+
+  @Override
+  public IdempotencyModel putIfAbsent(
+      IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    byte[] record = codec.encode(model);
+    byte[] cacheKey = key.toBytes();
+    // Insert first: first-time keys, the common case, then cost a single statement
+    while (true) {
+      long now = clock.millis();
+      try {
+        jdbcTemplate.update(INSERT, cacheKey, model.isPending(), record, now + ttl.toMillis());
+        return null;
+      } catch (DuplicateKeyException ex) {
+        IdempotencyModel existing = get(key);
+        if (existing != null) {
+          return existing;
+        }
+        // The row is dead but not purged yet, or was released in between
+        jdbcTemplate.update(DELETE_EXPIRED_KEY, cacheKey, now);
+      }
+    }
+  }
+
+  @Override
+  public void put(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    byte[] record = codec.encode(model);
+    byte[] cacheKey = key.toBytes();
+    long expiresAt = clock.millis() + ttl.toMillis();
+    int updated = jdbcTemplate.update(UPDATE, model.isPending(), record, expiresAt, cacheKey);
+    if (updated == 0) {
+      try {
+        jdbcTemplate.update(INSERT, cacheKey, model.isPending(), record, expiresAt);
+      } catch (DuplicateKeyException ex) {
+        jdbcTemplate.update(UPDATE, model.isPending(), record, expiresAt, cacheKey);
+      }
+    }
+  }
+
+  @Override
+  public Map<IdempotencyCacheKey, IdempotencyModel> getAll(Collection<IdempotencyCacheKey> keys) {
+    Map<IdempotencyCacheKey, IdempotencyModel> found = new HashMap<>();
+    List<IdempotencyCacheKey> remaining = List.copyOf(new HashSet<>(keys));
+    long now = clock.millis();
+    for (int from = 0; from < remaining.size(); from += MAX_IN_LIST) {
+      List<IdempotencyCacheKey> chunk =
+          remaining.subList(from, Math.min(remaining.size(), from + MAX_IN_LIST));
+      String sql = SELECT_MANY.formatted(String.join(", ", Collections.nCopies(chunk.size(), "?")));
+      Object[] args = new Object[chunk.size() + 1];
+      for (int i = 0; i < chunk.size(); i++) {
+        args[i] = chunk.get(i).toBytes();
+      }
+      args[chunk.size()] = now;
+      // Rows come back by their binary key, which reads back as the key it was asked for
+      jdbcTemplate.query(
+          sql,
+          (RowCallbackHandler)
+              rs ->
+                  found.put(
+                      IdempotencyCacheKey.fromBytes(rs.getBytes(1)), codec.decode(rs.getBytes(2))),
+          args);
+    }
+    hits.add(found.size());
+    misses.add(keys.size() - found.size());
+    return found;
+  }
+
+  @Override
+  public void putAll(Map<IdempotencyCacheKey, IdempotencyModel> models, Duration ttl) {
+    long expiresAt = clock.millis() + ttl.toMillis();
+    List<IdempotencyCacheKey> keys = new ArrayList<>(models.size());
+    List<Object[]> rows = new ArrayList<>(models.size());
+    models.forEach(
+        (key, model) -> {
+          keys.add(key);
+          rows.add(new Object[] {model.isPending(), codec.encode(model), expiresAt, key.toBytes()});
+        });
+    int[] updated = jdbcTemplate.batchUpdate(UPDATE, rows);
+    List<IdempotencyCacheKey> missing = new ArrayList<>();
+    List<Object[]> inserts = new ArrayList<>();
+    for (int i = 0; i < updated.length; i++) {
+      if (updated[i] == 0) {
+        Object[] row = rows.get(i);
+        missing.add(keys.get(i));
+        inserts.add(new Object[] {row[3], row[0], row[1], row[2]});
+      }
+    }
+    if (!inserts.isEmpty()) {
+      try {
+        jdbcTemplate.batchUpdate(INSERT, inserts);
+      } catch (DuplicateKeyException ex) {
+        // Raced with another writer, fall back to the per-key upsert
+        for (IdempotencyCacheKey key : missing) {
+          put(key, models.get(key), ttl);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void removePending(IdempotencyCacheKey key) {
+    jdbcTemplate.update(DELETE_PENDING, key.toBytes());
+  }
+
+  @Override
+  public IdempotencyStoreStats stats() {
+    return new IdempotencyStoreStats(hits.sum(), misses.sum(), 0, expirations.sum(), rows, 0);
+  }
+
+  @Override
+  public void close() {
+    purger.shutdownNow();
+  }
+
+  void purgeExpired() {
+    try {
+      expirations.add(jdbcTemplate.update(DELETE_EXPIRED, clock.millis()));
+    } catch (DataAccessException ex) {
+      // Keep the schedule alive, the next run picks up whatever this one missed
+      log.warn("Purging expired idempotency records failed", ex);
+    }
+    countRows();
+  }
+
+  // Serialized, so an earlier count never lands after a later one
+  private synchronized void countRows() {
+    try {
+      Long count = jdbcTemplate.queryForObject(COUNT, Long.class);
+      rows = count == null ? 0 : count;
+    } catch (DataAccessException ex) {
+      // The last count stays published until the next purge manages one
+      log.warn("Counting idempotency records failed", ex);
+    }
+  }
+}
@@ -0,0 +1,353 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Single-node idempotency store that persists records to a local, memory-mapped journal, so keys
+ * survive a restart without a database.
+ *
+ * <p>Every write appends a checksummed entry to the active segment file; the in-heap index only
+ * maps keys to entry locations. On startup the segments are replayed in order to rebuild the index,
+ * stopping at the first torn or corrupt entry of each segment, and appends go to a fresh segment.
+ * Segments are never rewritten: once every entry in a sealed segment has expired, the file is
+ * deleted. How often appends are forced to disk is set by the {@link
+ * IdempotencyProperties.FsyncPolicy}.
+ */
+@Slf4j
+public class JournalIdempotencyStore implements IdempotencyStore {
+
+  private static final String SEGMENT_SUFFIX = ".journal";
+
+  // Entry: length, CRC32C of the rest, expiry in epoch millis, type, key length, key, record
+  private static final int ENTRY_HEADER =
+      Integer.BYTES + Integer.BYTES + Long.BYTES + Byte.BYTES + Short.BYTES;
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  private final IdempotencyRecordCodec codec;
+  private final Clock clock;
+  private final Path directory;
+  private final int segmentSize;
+  private final IdempotencyProperties.FsyncPolicy fsync;
+
+  private final Map<IdempotencyCacheKey, Entry> index = new ConcurrentHashMap<>();
+  private final List<Segment> segments = new CopyOnWriteArrayList<>();
+  private final ReentrantLock appendLock = new ReentrantLock();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  // Only replaced under appendLock
+  private volatile Segment active;
+
+  private final ScheduledExecutorService maintenance;
+
+  public JournalIdempotencyStore(
+      IdempotencyRecordCodec codec, IdempotencyProperties.Journal properties) {
+    this(codec, properties, Clock.systemUTC());
+  }
+
+  JournalIdempotencyStore(
+      IdempotencyRecordCodec codec, IdempotencyProperties.Journal properties, Clock clock) {
+    long segmentBytes = properties.getSegmentSize().toBytes();
+    if (segmentBytes <= ENTRY_HEADER || segmentBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Journal segment size must fit in an int");
+    }
+    this.codec = codec;
+    this.clock = clock;
+    this.directory = properties.getDirectory();
+    this.segmentSize = (int) segmentBytes;
+    this.fsync = properties.getFsync();
+    try {
+      Files.createDirectories(directory);
+      recover();
+      this.active = openSegment(nextSequence());
+    } catch (IOException ex) {
+      throw new IdempotancyException("Idempotency journal could not be opened", ex);
+    }
+    this.maintenance =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("idempotency-journal").daemon().factory());
+    long purgeInterval = properties.getPurgeInterval().toMillis();
+    maintenance.scheduleWithFixedDelay(
+        this::purgeExpired, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+    if (fsync == IdempotencyProperties.FsyncPolicy.BATCH) {
+      long fsyncInterval = properties.getFsyncInterval().toMillis();
+      maintenance.scheduleWithFixedDelay(
+          this::force, fsyncInterval, fsyncInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public IdempotencyModel get(IdempotencyCacheKey key) {
+    Entry entry = index.get(key);
+    if (entry == null || entry.expiresAt() <= clock.millis()) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.read(codec);
+  }
+
+  @Override
+  public IdempotencyModel putIfAbsent(
+      IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    long expiresAt = expiresAt(ttl);
+    byte[] entry = encode(PUT, key, codec.encode(model), expiresAt);
+    appendLock.lock();
+    try {
+      Entry existing = index.get(key);
+      if (existing != null && existing.expiresAt() > clock.millis()) {
+        return existing.read(codec);
+      }
+      index.put(key, append(entry, expiresAt));
+      return null;
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  @Override
+  public void put(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    long expiresAt = expiresAt(ttl);
+    byte[] entry = encode(PUT, key, codec.encode(model), expiresAt);
+    appendLock.lock();
+    try {
+      index.put(key, append(entry, expiresAt));
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  @Override
+  public void removePending(IdempotencyCacheKey key) {
+    appendLock.lock();
+    try {
+      Entry existing = index.get(key);
+      if (existing != null && existing.read(codec).isPending()) {
+        // The tombstone lives exactly as long as the reservation it cancels
+        append(encode(REMOVE, key, new byte[0], existing.expiresAt()), existing.expiresAt());
+        index.remove(key);
+      }
+    } finally {
+      appendLock.unlock();
+    }
+  }
+
+  @Override
+  public IdempotencyStoreStats stats() {
+    long weight = 0;
+    for (Segment segment : segments) {
+      weight += segment.used;
+    }
+    return new IdempotencyStoreStats(
+        hits.sum(), misses.sum(), 0, expirations.sum(), index.size(), weight);
+  }
+
+  @Override
+  public void close() {
+    maintenance.shutdownNow();
+    force();
+  }
+
+  /** Drops expired keys from the index and deletes sealed segments whose entries all expired. */
+  void purgeExpired() {
+    long now = clock.millis();
+    for (Map.Entry<IdempotencyCacheKey, Entry> indexed : index.entrySet()) {
+      // Conditional, so a key rewritten meanwhile keeps its new entry
+      if (indexed.getValue().expiresAt() <= now
+          && index.remove(indexed.getKey(), indexed.getValue())) {
+        expirations.increment();
+      }
+    }
+    for (Segment segment : segments) {
+      if (segment != active && segment.maxExpiresAt <= now) {
+        segments.remove(segment);
+        try {
+          Files.deleteIfExists(segment.path);
+        } catch (IOException ex) {
+          log.warn("Could not delete expired idempotency journal segment {}", segment.path, ex);
+        }
+      }
+    }
+  }
+
+  /** Forces appended entries to disk. */
+  void force() {
+    Segment segment = active;
+    if (segment != null) {
+      segment.buffer.force();
+    }
+  }
+
+  private Entry append(byte[] entry, long expiresAt) {
+    if (entry.length > segmentSize) {
+      throw new IdempotancyException("Idempotency record is larger than a journal segment");
+    }
+    if (active.used + entry.length > segmentSize) {
+      rotate();
+    }
+    Segment segment = active;
+    int offset = segment.used;
+    segment.buffer.put(offset, entry);
+    if (fsync == IdempotencyProperties.FsyncPolicy.SYNC) {
+      segment.buffer.force(offset, entry.length);
+    }
+    segment.used += entry.length;
+    segment.maxExpiresAt = Math.max(segment.maxExpiresAt, expiresAt);
+    return new Entry(segment, offset, expiresAt);
+  }
+
+  private void rotate() {
+    active.buffer.force();
+    try {
+      active = openSegment(active.sequence + 1);
+    } catch (IOException ex) {
+      throw new IdempotancyException("Idempotency journal segment could not be created", ex);
+    }
+  }
+
+  private byte[] encode(byte type, IdempotencyCacheKey key, byte[] record, long expiresAt) {
+    byte[] keyBytes = key.toBytes();
+    ByteBuffer buffer = ByteBuffer.allocate(ENTRY_HEADER + keyBytes.length + record.length);
+    buffer.putInt(buffer.capacity());
+    buffer.putInt(0);
+    buffer.putLong(expiresAt);
+    buffer.put(type);
+    buffer.putShort((short) keyBytes.length);
+    buffer.put(keyBytes);
+    buffer.put(record);
+    CRC32C crc = new CRC32C();
+    crc.update(buffer.array(), 2 * Integer.BYTES, buffer.capacity() - 2 * Integer.BYTES);
+    buffer.putInt(Integer.BYTES, (int) crc.getValue());
+    return buffer.array();
+  }
+
+  private void recover() throws IOException {
+    List<Path> files;
+    try (Stream<Path> listing = Files.list(directory)) {
+      files =
+          listing
+              .filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+              .sorted()
+              .toList();
+    }
+    long now = clock.millis();
+    for (Path file : files) {
+      Segment segment = openSegment(sequenceOf(file));
+      replay(segment, now);
+    }
+    // Keys whose latest entry has expired are no longer worth indexing
+    index.values().removeIf(entry -> entry.expiresAt() <= now);
+  }
+
+  private void replay(Segment segment, long now) {
+    ByteBuffer buffer = segment.buffer;
+    int offset = 0;
+    while (offset + ENTRY_HEADER <= segmentSize) {
+      int length = buffer.getInt(offset);
+      if (length < ENTRY_HEADER || offset + length > segmentSize) {
+        break;
+      }
+      CRC32C crc = new CRC32C();
+      crc.update(buffer.slice(offset + 2 * Integer.BYTES, length - 2 * Integer.BYTES));
+      if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+        log.warn("Idempotency journal {} is torn at offset {}", segment.path, offset);
+        break;
+      }
+      long expiresAt = buffer.getLong(offset + 2 * Integer.BYTES);
+      byte type = buffer.get(offset + 2 * Integer.BYTES + Long.BYTES);
+      if (type == PUT || type == REMOVE) {
+        byte[] keyBytes = new byte[buffer.getShort(offset + ENTRY_HEADER - Short.BYTES)];
+        buffer.get(offset + ENTRY_HEADER, keyBytes);
+        IdempotencyCacheKey key = IdempotencyCacheKey.fromBytes(keyBytes);
+        if (type == PUT) {
+          index.put(key, new Entry(segment, offset, expiresAt));
+        } else {
+          index.remove(key);
+        }
+      }
+      segment.maxExpiresAt = Math.max(segment.maxExpiresAt, expiresAt);
+      offset += length;
+    }
+    segment.used = offset;
+  }
+
+  private Segment openSegment(long sequence) throws IOException {
+    Path path = directory.resolve("%020d%s".formatted(sequence, SEGMENT_SUFFIX));
+    MappedByteBuffer buffer;
+    try (FileChannel channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+    Segment segment = new Segment(sequence, path, buffer);
+    segments.add(segment);
+    return segment;
+  }
+
+  private long nextSequence() {
+    return segments.isEmpty() ? 0 : segments.getLast().sequence + 1;
+  }
+
+  private long expiresAt(Duration ttl) {
+    return clock.millis() + ttl.toMillis();
+  }
+
+  private static long sequenceOf(Path file) {
+    String name = file.getFileName().toString();
+    return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private record Entry(Segment segment, int offset, long expiresAt) {
+
+    IdempotencyModel read(IdempotencyRecordCodec codec) {
+      ByteBuffer buffer = segment.buffer;
+      int length = buffer.getInt(offset);
+      int keyLength = buffer.getShort(offset + ENTRY_HEADER - Short.BYTES);
+      byte[] record = new byte[length - ENTRY_HEADER - keyLength];
+      buffer.get(offset + ENTRY_HEADER + keyLength, record);
+      return codec.decode(record);
+    }
+  }
+
+  private static final class Segment {
+
+    final long sequence;
+    final Path path;
+    final MappedByteBuffer buffer;
+    volatile int used;
+    volatile long maxExpiresAt = Long.MIN_VALUE;
+
+    Segment(long sequence, Path path, MappedByteBuffer buffer) {
+      this.sequence = sequence;
+      this.path = path;
+      this.buffer = buffer;
+    }
+  }
+}
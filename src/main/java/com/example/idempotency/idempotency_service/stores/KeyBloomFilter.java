@@ -0,0 +1,80 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free Bloom filter over cache keys. It is split into two generations: once the current one
+ * has absorbed {@code expectedKeys} insertions it becomes the previous one and a fresh generation
+ * starts, so the false positive rate stays bounded however long the application runs.
+ */
+class KeyBloomFilter {
+
+  private final int bitCount;
+  private final int hashCount;
+  private final long expectedKeys;
+
+  private volatile Generation current;
+  private volatile Generation previous;
+
+  KeyBloomFilter(long expectedKeys, double falsePositiveRate) {
+    double bits = -expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+    this.bitCount = (int) Math.min(Integer.MAX_VALUE - 64L, Math.max(64, (long) bits));
+    this.hashCount = Math.max(1, (int) Math.round(bits / expectedKeys * Math.log(2)));
+    this.expectedKeys = expectedKeys;
+    this.current = new Generation(bitCount);
+    this.previous = new Generation(bitCount);
+  }
+
+  boolean mightContain(IdempotencyCacheKey key) {
+    long hash = key.hash64();
+    return current.contains(hash, bitCount, hashCount)
+        || previous.contains(hash, bitCount, hashCount);
+  }
+
+  void put(IdempotencyCacheKey key) {
+    Generation generation = current;
+    generation.add(key.hash64(), bitCount, hashCount);
+    if (generation.insertions.incrementAndGet() == expectedKeys) {
+      previous = generation;
+      current = new Generation(bitCount);
+    }
+  }
+
+  private static final class Generation {
+
+    final AtomicLongArray words;
+    final AtomicLong insertions = new AtomicLong();
+
+    Generation(int bitCount) {
+      this.words = new AtomicLongArray((bitCount + 63) >>> 6);
+    }
+
+    boolean contains(long hash, int bitCount, int hashCount) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for (int i = 0; i < hashCount; i++) {
+        int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+        if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    void add(long hash, int bitCount, int hashCount) {
+      int h1 = (int) hash;
+      int h2 = (int) (hash >>> 32);
+      for (int i = 0; i < hashCount; i++) {
+        int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+        long mask = 1L << bit;
+        int index = bit >>> 6;
+        long word = words.get(index);
+        while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+          word = words.get(index);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,490 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Per-instance idempotency store that keeps keys and encoded records in direct memory, so the heap
+ * holds a handful of objects however many keys are live.
+ *
+ * <p>Records are appended to fixed-size slab segments and located through an open-addressing index
+ * that is itself a direct buffer. Segments are never written in place: a replaced or removed record
+ * just stops being referenced by the index. A background task frees segments whose records have all
+ * expired and compacts segments that are mostly dead by copying their live records forward. When
+ * every segment is in use, the one whose records expire first is evicted whole.
+ */
+public class OffHeapIdempotencyStore implements IdempotencyStore {
+
+  // Index slot: key hash, then segment id (high int) and offset (low int) of the record
+  private static final int SLOT_BYTES = 2 * Long.BYTES;
+  private static final long EMPTY = 0;
+  private static final long TOMBSTONE = 1;
+  private static final int NOT_FOUND = -1;
+  // Keeps slot offsets within an int
+  private static final int MAXIMUM_SLOTS = 1 << 26;
+
+  // Record: total length, expiry in epoch millis, key length, then key and encoded record bytes
+  private static final int RECORD_HEADER = Integer.BYTES + Long.BYTES + Short.BYTES;
+
+  private final IdempotencyRecordCodec codec;
+  private final Clock clock;
+  private final int segmentSize;
+  private final long maximumEntries;
+  private final double compactionThreshold;
+  private final Segment[] segments;
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  // Guarded by lock
+  private final ArrayDeque<Segment> free = new ArrayDeque<>();
+  private ByteBuffer index;
+  private int slotMask;
+  private long liveEntries;
+  private long tombstones;
+  private Segment active;
+
+  private final ScheduledExecutorService compactor;
+
+  public OffHeapIdempotencyStore(
+      IdempotencyRecordCodec codec, IdempotencyProperties.OffHeap properties) {
+    this(codec, properties, Clock.systemUTC());
+  }
+
+  OffHeapIdempotencyStore(
+      IdempotencyRecordCodec codec, IdempotencyProperties.OffHeap properties, Clock clock) {
+    long segmentBytes = properties.getSegmentSize().toBytes();
+    if (segmentBytes <= RECORD_HEADER || segmentBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Off-heap segment size must fit in an int");
+    }
+    if (properties.getSegmentCount() < 2) {
+      throw new IllegalArgumentException("Off-heap store needs at least two segments");
+    }
+    this.codec = codec;
+    this.clock = clock;
+    this.segmentSize = (int) segmentBytes;
+    this.maximumEntries = properties.getMaximumEntries();
+    this.compactionThreshold = properties.getCompactionThreshold();
+    this.segments = new Segment[properties.getSegmentCount()];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(i, ByteBuffer.allocateDirect(segmentSize));
+      free.add(segments[i]);
+    }
+    this.active = free.poll();
+    // At least twice the entry bound keeps probe sequences short even with tombstones
+    long slots = Long.highestOneBit(Math.max(16, maximumEntries * 4 - 1));
+    this.index = newIndex((int) Math.min(MAXIMUM_SLOTS, slots));
+    this.compactor =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("idempotency-compaction").daemon().factory());
+    long interval = properties.getCompactionInterval().toMillis();
+    this.compactor.scheduleWithFixedDelay(this::compact, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public IdempotencyModel get(IdempotencyCacheKey key) {
+    byte[] keyBytes = key.toBytes();
+    long hash = hash(key);
+    byte[] record = null;
+    lock.readLock().lock();
+    try {
+      int slot = find(hash, keyBytes);
+      if (slot >= 0) {
+        record = readLive(index.getLong(slot * SLOT_BYTES + Long.BYTES), clock.millis());
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    if (record == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return codec.decode(record);
+  }
+
+  @Override
+  public IdempotencyModel putIfAbsent(
+      IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    byte[] keyBytes = key.toBytes();
+    byte[] record = codec.encode(model);
+    long hash = hash(key);
+    lock.writeLock().lock();
+    try {
+      int slot = find(hash, keyBytes);
+      if (slot >= 0) {
+        byte[] existing = readLive(index.getLong(slot * SLOT_BYTES + Long.BYTES), clock.millis());
+        if (existing != null) {
+          return codec.decode(existing);
+        }
+      }
+      store(hash, keyBytes, record, expiresAt(ttl));
+      return null;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void put(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    byte[] keyBytes = key.toBytes();
+    byte[] record = codec.encode(model);
+    long hash = hash(key);
+    lock.writeLock().lock();
+    try {
+      store(hash, keyBytes, record, expiresAt(ttl));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void removePending(IdempotencyCacheKey key) {
+    byte[] keyBytes = key.toBytes();
+    long hash = hash(key);
+    lock.writeLock().lock();
+    try {
+      int slot = find(hash, keyBytes);
+      if (slot < 0) {
+        return;
+      }
+      long location = index.getLong(slot * SLOT_BYTES + Long.BYTES);
+      byte[] record = readLive(location, Long.MIN_VALUE);
+      if (record != null && codec.decode(record).isPending()) {
+        release(location);
+        removeSlot(slot);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  public long size() {
+    lock.readLock().lock();
+    try {
+      return liveEntries;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public IdempotencyStoreStats stats() {
+    long size;
+    long weight = 0;
+    lock.readLock().lock();
+    try {
+      size = liveEntries;
+      for (Segment segment : segments) {
+        weight += segment.liveBytes;
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return new IdempotencyStoreStats(
+        hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size, weight);
+  }
+
+  @Override
+  public void close() {
+    compactor.shutdownNow();
+  }
+
+  /** Frees fully expired segments and compacts sealed segments that are mostly dead. */
+  void compact() {
+    for (Segment segment : segments) {
+      // One segment per lock hold keeps writers from stalling behind a full pass
+      lock.writeLock().lock();
+      try {
+        if (segment.used == 0) {
+          continue;
+        }
+        long now = clock.millis();
+        if (segment == active) {
+          // Still being appended to, so only its expired keys can go
+          dropExpired(segment, now);
+        } else if (segment.maxExpiresAt <= now) {
+          reclaim(segment, now);
+        } else if (segment.liveBytes < segment.used * compactionThreshold) {
+          relocate(segment, now);
+        }
+      } finally {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+
+  private void store(long hash, byte[] keyBytes, byte[] record, long expiresAt) {
+    int length = RECORD_HEADER + keyBytes.length + record.length;
+    if (length > segmentSize) {
+      throw new IdempotancyException("Idempotency record is larger than an off-heap segment");
+    }
+    int slot = find(hash, keyBytes);
+    if (slot >= 0) {
+      release(index.getLong(slot * SLOT_BYTES + Long.BYTES));
+      removeSlot(slot);
+    }
+    while (liveEntries >= maximumEntries) {
+      evictOne();
+    }
+    long location = append(keyBytes, record, expiresAt, length);
+    insertSlot(hash, location);
+  }
+
+  private long append(byte[] keyBytes, byte[] record, long expiresAt, int length) {
+    if (active.used + length > segmentSize) {
+      Segment next = free.poll();
+      if (next == null) {
+        evictOne();
+        next = free.poll();
+      }
+      active = next;
+    }
+    Segment segment = active;
+    int offset = segment.used;
+    ByteBuffer buffer = segment.buffer;
+    buffer.putInt(offset, length);
+    buffer.putLong(offset + Integer.BYTES, expiresAt);
+    buffer.putShort(offset + Integer.BYTES + Long.BYTES, (short) keyBytes.length);
+    buffer.put(offset + RECORD_HEADER, keyBytes);
+    buffer.put(offset + RECORD_HEADER + keyBytes.length, record);
+    segment.used += length;
+    segment.liveBytes += length;
+    segment.maxExpiresAt = Math.max(segment.maxExpiresAt, expiresAt);
+    return (long) segment.id << 32 | offset;
+  }
+
+  // Drops the sealed segment whose records expire first, or the active one if it is alone
+  private void evictOne() {
+    Segment victim = null;
+    for (Segment segment : segments) {
+      if (segment != active
+          && segment.used > 0
+          && (victim == null || segment.maxExpiresAt < victim.maxExpiresAt)) {
+        victim = segment;
+      }
+    }
+    if (victim == null) {
+      victim = active;
+    }
+    reclaim(victim, clock.millis());
+    if (victim == active) {
+      free.remove(victim);
+    }
+  }
+
+  // Removes every record of the segment from the index and returns the segment to the free list
+  private void reclaim(Segment segment, long now) {
+    forEachIndexed(
+        segment,
+        (slot, offset) -> {
+          long expiresAt = segment.buffer.getLong(offset + Integer.BYTES);
+          (expiresAt <= now ? expirations : evictions).increment();
+          removeSlot(slot);
+        });
+    segment.reset();
+    free.add(segment);
+  }
+
+  private void dropExpired(Segment segment, long now) {
+    forEachIndexed(
+        segment,
+        (slot, offset) -> {
+          if (segment.buffer.getLong(offset + Integer.BYTES) <= now) {
+            expirations.increment();
+            segment.liveBytes -= segment.buffer.getInt(offset);
+            removeSlot(slot);
+          }
+        });
+  }
+
+  // Copies the live records of the segment into the active one, then frees it
+  private void relocate(Segment segment, long now) {
+    forEachIndexed(
+        segment,
+        (slot, offset) -> {
+          ByteBuffer buffer = segment.buffer;
+          int length = buffer.getInt(offset);
+          long expiresAt = buffer.getLong(offset + Integer.BYTES);
+          if (expiresAt <= now) {
+            expirations.increment();
+            segment.liveBytes -= length;
+            removeSlot(slot);
+            return;
+          }
+          if (active.used + length > segmentSize && free.isEmpty()) {
+            // Nowhere to move it without evicting, keep the rest in place
+            return;
+          }
+          int keyLength = buffer.getShort(offset + Integer.BYTES + Long.BYTES);
+          byte[] keyBytes = new byte[keyLength];
+          buffer.get(offset + RECORD_HEADER, keyBytes);
+          byte[] record = new byte[length - RECORD_HEADER - keyLength];
+          buffer.get(offset + RECORD_HEADER + keyLength, record);
+          segment.liveBytes -= length;
+          index.putLong(
+              slot * SLOT_BYTES + Long.BYTES, append(keyBytes, record, expiresAt, length));
+        });
+    if (segment.liveBytes == 0) {
+      segment.reset();
+      free.add(segment);
+    }
+  }
+
+  // Visits the records of the segment that the index still points at
+  private void forEachIndexed(Segment segment, IndexedRecordVisitor visitor) {
+    ByteBuffer buffer = segment.buffer;
+    int used = segment.used;
+    int offset = 0;
+    while (offset < used) {
+      int length = buffer.getInt(offset);
+      int keyLength = buffer.getShort(offset + Integer.BYTES + Long.BYTES);
+      byte[] keyBytes = new byte[keyLength];
+      buffer.get(offset + RECORD_HEADER, keyBytes);
+      long location = (long) segment.id << 32 | offset;
+      int slot = find(hash(IdempotencyCacheKey.fromBytes(keyBytes)), keyBytes);
+      if (slot >= 0 && index.getLong(slot * SLOT_BYTES + Long.BYTES) == location) {
+        visitor.visit(slot, offset);
+      }
+      offset += length;
+    }
+  }
+
+  private byte[] readLive(long location, long now) {
+    ByteBuffer buffer = segments[(int) (location >>> 32)].buffer;
+    int offset = (int) location;
+    if (buffer.getLong(offset + Integer.BYTES) <= now) {
+      return null;
+    }
+    int keyLength = buffer.getShort(offset + Integer.BYTES + Long.BYTES);
+    byte[] record = new byte[buffer.getInt(offset) - RECORD_HEADER - keyLength];
+    buffer.get(offset + RECORD_HEADER + keyLength, record);
+    return record;
+  }
+
+  private void release(long location) {
+    Segment segment = segments[(int) (location >>> 32)];
+    segment.liveBytes -= segment.buffer.getInt((int) location);
+  }
+
+  private int find(long hash, byte[] keyBytes) {
+    int slot = (int) hash & slotMask;
+    while (true) {
+      long slotHash = index.getLong(slot * SLOT_BYTES);
+      if (slotHash == EMPTY) {
+        return NOT_FOUND;
+      }
+      if (slotHash == hash && keyEquals(index.getLong(slot * SLOT_BYTES + Long.BYTES), keyBytes)) {
+        return slot;
+      }
+      slot = (slot + 1) & slotMask;
+    }
+  }
+
+  private boolean keyEquals(long location, byte[] keyBytes) {
+    ByteBuffer buffer = segments[(int) (location >>> 32)].buffer;
+    int offset = (int) location;
+    if (buffer.getShort(offset + Integer.BYTES + Long.BYTES) != keyBytes.length) {
+      return false;
+    }
+    return buffer.slice(offset + RECORD_HEADER, keyBytes.length).equals(ByteBuffer.wrap(keyBytes));
+  }
+
+  private void insertSlot(long hash, long location) {
+    if (liveEntries + tombstones + 1 > (slotMask + 1L) * 3 / 4) {
+      rehash();
+    }
+    int slot = (int) hash & slotMask;
+    long slotHash;
+    while ((slotHash = index.getLong(slot * SLOT_BYTES)) != EMPTY && slotHash != TOMBSTONE) {
+      slot = (slot + 1) & slotMask;
+    }
+    if (slotHash == TOMBSTONE) {
+      tombstones--;
+    }
+    index.putLong(slot * SLOT_BYTES, hash);
+    index.putLong(slot * SLOT_BYTES + Long.BYTES, location);
+    liveEntries++;
+  }
+
+  private void removeSlot(int slot) {
+    index.putLong(slot * SLOT_BYTES, TOMBSTONE);
+    liveEntries--;
+    tombstones++;
+  }
+
+  // Rebuilds the index without tombstones, growing it if live entries alone fill half of it
+  private void rehash() {
+    ByteBuffer old = index;
+    int oldSlots = slotMask + 1;
+    int slots = liveEntries * 2 > oldSlots && oldSlots < MAXIMUM_SLOTS ? oldSlots * 2 : oldSlots;
+    index = newIndex(slots);
+    tombstones = 0;
+    for (int slot = 0; slot < oldSlots; slot++) {
+      long hash = old.getLong(slot * SLOT_BYTES);
+      if (hash != EMPTY && hash != TOMBSTONE) {
+        int target = (int) hash & slotMask;
+        while (index.getLong(target * SLOT_BYTES) != EMPTY) {
+          target = (target + 1) & slotMask;
+        }
+        index.putLong(target * SLOT_BYTES, hash);
+        index.putLong(
+            target * SLOT_BYTES + Long.BYTES, old.getLong(slot * SLOT_BYTES + Long.BYTES));
+      }
+    }
+  }
+
+  private ByteBuffer newIndex(int slots) {
+    slotMask = slots - 1;
+    return ByteBuffer.allocateDirect(slots * SLOT_BYTES);
+  }
+
+  private long expiresAt(Duration ttl) {
+    return clock.millis() + ttl.toMillis();
+  }
+
+  // The two smallest hashes mark empty and deleted slots
+  private static long hash(IdempotencyCacheKey key) {
+    long hash = key.hash64();
+    return hash == EMPTY || hash == TOMBSTONE ? hash + 2 : hash;
+  }
+
+  @FunctionalInterface
+  private interface IndexedRecordVisitor {
+    void visit(int slot, int offset);
+  }
+
+  private static final class Segment {
+
+    final int id;
+    final ByteBuffer buffer;
+    int used;
+    long liveBytes;
+    long maxExpiresAt = Long.MIN_VALUE;
+
+    Segment(int id, ByteBuffer buffer) {
+      this.id = id;
+      this.buffer = buffer;
+    }
+
+    void reset() {
+      used = 0;
+      liveBytes = 0;
+      maxExpiresAt = Long.MIN_VALUE;
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * In-memory store split into independent {@link InMemoryIdempotencyStore} segments.
+ *
+ * <p>Each key belongs to one segment, which holds its own eviction lock, access order, expiry and
+ * counters together with an equal share of the configured bounds. Writers on different keys then
+ * rarely meet on the same lock, where a single store serializes every write. The bounds hold per
+ * segment, so the store as a whole may evict a little before reaching them when keys spread
+ * unevenly. Stats are summed from the segments' counters without locking any of them. A snapshot is
+ * one file for the whole store, entries going back to whichever segment their key maps to.
+ */
+public class ShardedIdempotencyStore implements IdempotencyStore {
+
+  private static final int MAXIMUM_SHARDS = 1 << 16;
+
+  private final InMemoryIdempotencyStore[] segments;
+  private final int shift;
+  private final ScheduledExecutorService sweeper;
+  private final Path snapshot;
+
+  public ShardedIdempotencyStore(IdempotencyProperties.Memory properties) {
+    this(properties, Clock.systemUTC());
+  }
+
+  ShardedIdempotencyStore(IdempotencyProperties.Memory properties, Clock clock) {
+    int count = Integer.highestOneBit(Math.clamp(properties.getShards(), 1, MAXIMUM_SHARDS));
+    if (count < properties.getShards()) {
+      count <<= 1;
+    }
+    IdempotencyProperties.Memory share =
+        new IdempotencyProperties.Memory(
+            Math.ceilDiv(properties.getMaximumSize(), count),
+            DataSize.ofBytes(Math.ceilDiv(properties.getMaximumWeight().toBytes(), count)),
+            properties.getExpiryInterval(),
+            1,
+            null);
+    this.snapshot = properties.getSnapshot();
+    InMemorySnapshot.Reader reader = InMemorySnapshot.open(snapshot);
+    long expectedEntries = reader == null ? 0 : Math.ceilDiv(reader.count(), count);
+    this.segments = new InMemoryIdempotencyStore[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new InMemoryIdempotencyStore(share, clock, false, expectedEntries);
+    }
+    this.shift = Integer.SIZE - Integer.numberOfTrailingZeros(count);
+    if (reader != null) {
+      InMemorySnapshot.load(
+          snapshot,
+          reader,
+          clock.millis(),
+          (key, model, expiresAt) -> segmentFor(key).restore(key, model, expiresAt));
+    }
+    // One thread sweeps every segment in turn, each under its own lock
+    this.sweeper =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("idempotency-expiry").daemon().factory());
+    long interval = properties.getExpiryInterval().toMillis();
+    this.sweeper.scheduleWithFixedDelay(
+        this::expireEntries, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public IdempotencyModel get(IdempotencyCacheKey key) {
+    return segmentFor(key).get(key);
+  }
+
+  @Override
+  public IdempotencyModel putIfAbsent(
+      IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    return segmentFor(key).putIfAbsent(key, model, ttl);
+  }
+
+  @Override
+  public void put(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    segmentFor(key).put(key, model, ttl);
+  }
+
+  @Override
+  public void removePending(IdempotencyCacheKey key) {
+    segmentFor(key).removePending(key);
+  }
+
+  public long size() {
+    long size = 0;
+    for (InMemoryIdempotencyStore segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  @Override
+  public IdempotencyStoreStats stats() {
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+    long expirations = 0;
+    long size = 0;
+    long weight = 0;
+    for (InMemoryIdempotencyStore segment : segments) {
+      IdempotencyStoreStats stats = segment.stats();
+      hits += stats.hits();
+      misses += stats.misses();
+      evictions += stats.evictions();
+      expirations += stats.expirations();
+      size += stats.size();
+      weight += stats.weight();
+    }
+    return new IdempotencyStoreStats(hits, misses, evictions, expirations, size, weight);
+  }
+
+  @Override
+  public void close() {
+    sweeper.shutdownNow();
+    if (snapshot != null) {
+      InMemorySnapshot.write(
+          snapshot,
+          writer -> {
+            for (InMemoryIdempotencyStore segment : segments) {
+              segment.writeTo(writer);
+            }
+          });
+    }
+  }
+
+  int segmentCount() {
+    return segments.length;
+  }
+
+  void expireEntries() {
+    for (InMemoryIdempotencyStore segment : segments) {
+      segment.expireEntries();
+    }
+  }
+
+  private InMemoryIdempotencyStore segmentFor(IdempotencyCacheKey key) {
+    if (shift == Integer.SIZE) {
+      return segments[0];
+    }
+    // Pick by the top bits of the key's precomputed FNV hash code, mixed: each segment's map
+    // indexes its table by the low bits of that same hash code, which would otherwise be
+    // identical for every key in a segment
+    int hash = key.hashCode() * 0x9E3779B9;
+    return segments[hash >>> shift];
+  }
+}
@@ -0,0 +1,123 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel that hands out entries once their expiry time has passed.
+ *
+ * <p>Each of the four levels has 64 buckets, and a bucket on one level spans a whole turn of the
+ * level below it; with a one second tick the levels turn every minute, hour, three days and half a
+ * year. An entry goes into the finest level whose turn covers its remaining time. {@link #schedule}
+ * and {@link #cancel} are O(1) because entries are linked into buckets intrusively. {@link
+ * #advance} only visits the buckets whose span has passed, plus the current bucket of the finest
+ * level; entries found there that are not yet due drop down to a finer level, so an entry is moved
+ * at most once per level.
+ *
+ * <p>Entries are handed out by the first advance at or after their expiry. Not thread safe.
+ */
+final class TimingWheel<T extends TimingWheel.Timer> {
+
+  private static final int LEVELS = 4;
+  private static final int BUCKET_BITS = 6;
+  private static final int BUCKETS = 1 << BUCKET_BITS;
+  private static final int MASK = BUCKETS - 1;
+
+  // Milliseconds covered by one bucket on each level
+  private final long[] spans = new long[LEVELS];
+  private final Timer[][] buckets = new Timer[LEVELS][BUCKETS];
+
+  private long time;
+
+  TimingWheel(Duration tick, long now) {
+    long span = Math.max(1, tick.toMillis());
+    for (int level = 0; level < LEVELS; level++) {
+      spans[level] = span;
+      span <<= BUCKET_BITS;
+      for (int i = 0; i < BUCKETS; i++) {
+        Timer sentinel = new Timer();
+        sentinel.timerPrev = sentinel;
+        sentinel.timerNext = sentinel;
+        buckets[level][i] = sentinel;
+      }
+    }
+    this.time = now;
+  }
+
+  void schedule(T timer) {
+    Timer sentinel = bucketFor(timer.expiresAt);
+    timer.timerPrev = sentinel.timerPrev;
+    timer.timerNext = sentinel;
+    sentinel.timerPrev.timerNext = timer;
+    sentinel.timerPrev = timer;
+  }
+
+  void cancel(T timer) {
+    if (timer.timerNext == null) {
+      return;
+    }
+    timer.timerPrev.timerNext = timer.timerNext;
+    timer.timerNext.timerPrev = timer.timerPrev;
+    timer.timerPrev = null;
+    timer.timerNext = null;
+  }
+
+  /** Moves the wheel to {@code now}, passing every entry that expired to {@code expired}. */
+  @SuppressWarnings("unchecked")
+  void advance(long now, Consumer<T> expired) {
+    long previous = time;
+    if (now <= previous) {
+      return;
+    }
+    time = now;
+    // Coarsest level first, so entries dropping down are handed out in the same pass
+    for (int level = LEVELS - 1; level >= 0; level--) {
+      long previousTicks = previous / spans[level];
+      long currentTicks = now / spans[level];
+      if (previousTicks == currentTicks && level > 0) {
+        continue;
+      }
+      // The finest level always rechecks its current bucket, which may hold entries due by now
+      int steps = (int) Math.min(currentTicks - previousTicks + 1, BUCKETS);
+      for (int step = 0; step < steps; step++) {
+        Timer sentinel = buckets[level][(int) ((previousTicks + step) & MASK)];
+        Timer timer = sentinel.timerNext;
+        sentinel.timerPrev = sentinel;
+        sentinel.timerNext = sentinel;
+        while (timer != sentinel) {
+          Timer next = timer.timerNext;
+          timer.timerPrev = null;
+          timer.timerNext = null;
+          if (timer.expiresAt <= now) {
+            expired.accept((T) timer);
+          } else {
+            schedule((T) timer);
+          }
+          timer = next;
+        }
+      }
+    }
+  }
+
+  private Timer bucketFor(long expiresAt) {
+    // Entries that are already due go into the current bucket, the next tick hands them out
+    long at = Math.max(expiresAt, time);
+    long remaining = at - time;
+    for (int level = 0; level < LEVELS - 1; level++) {
+      if (remaining < spans[level + 1]) {
+        return buckets[level][(int) ((at / spans[level]) & MASK)];
+      }
+    }
+    // Beyond the last level's turn, the entry is rescheduled each time its bucket comes round
+    return buckets[LEVELS - 1][(int) ((at / spans[LEVELS - 1]) & MASK)];
+  }
+
+  /** Intrusive links of an entry into its bucket. */
+  static class Timer {
+
+    long expiresAt;
+
+    Timer timerPrev;
+    Timer timerNext;
+  }
+}
@@ -0,0 +1,194 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Small local tier in front of a shared, authoritative store.
+ *
+ * <p>Completed responses are written through to both tiers and cached locally for a short TTL, so
+ * retries that land within seconds never leave the instance. Pending reservations are never cached
+ * locally. Lookups that miss the backing store are remembered for {@code negative-ttl}, which means
+ * {@link #get} may report a record written by another instance as absent for at most that long.
+ * Reservations stay exact: {@link #putIfAbsent} always ends in the backing store's own atomic
+ * insert.
+ *
+ * <p>A Bloom filter of the keys this instance has written or seen decides how a reservation is
+ * tried. Keys it has never seen, which is nearly every first-time key, go straight to the insert
+ * with no lookup before it. Keys that may have been seen are looked up first, because a retry is
+ * then more likely than not.
+ */
+public class TwoTierIdempotencyStore implements IdempotencyStore {
+
+  // Near-tier marker for a key the backing store recently reported as absent
+  private static final IdempotencyModel ABSENT = IdempotencyModel.builder().build();
+
+  private final InMemoryIdempotencyStore near;
+  private final IdempotencyStore backing;
+  private final KeyBloomFilter seenKeys;
+  private final Duration nearTtl;
+  private final Duration negativeTtl;
+
+  public TwoTierIdempotencyStore(
+      IdempotencyStore backing, IdempotencyProperties.NearCache properties) {
+    this(new InMemoryIdempotencyStore(properties.getMemory()), backing, properties);
+  }
+
+  TwoTierIdempotencyStore(
+      InMemoryIdempotencyStore near,
+      IdempotencyStore backing,
+      IdempotencyProperties.NearCache properties) {
+    this.near = near;
+    this.backing = backing;
+    this.seenKeys =
+        new KeyBloomFilter(properties.getExpectedKeys(), properties.getFalsePositiveRate());
+    this.nearTtl = properties.getTtl();
+    this.negativeTtl = properties.getNegativeTtl();
+  }
+
+  @Override
+  public IdempotencyModel get(IdempotencyCacheKey key) {
+    IdempotencyModel local = near.get(key);
+    if (local == ABSENT) {
+      return null;
+    }
+    if (local != null) {
+      return local;
+    }
+    IdempotencyModel remote = backing.get(key);
+    cacheRemote(key, remote);
+    return remote;
+  }
+
+  @Override
+  public IdempotencyModel putIfAbsent(
+      IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    IdempotencyModel local = near.get(key);
+    if (local != null && local != ABSENT) {
+      return local;
+    }
+    if (local == null && seenKeys.mightContain(key)) {
+      IdempotencyModel remote = backing.get(key);
+      if (remote != null) {
+        cacheRemote(key, remote);
+        return remote;
+      }
+    }
+    IdempotencyModel existing = backing.putIfAbsent(key, model, ttl);
+    seenKeys.put(key);
+    if (existing == null) {
+      cacheLocal(key, model, ttl);
+    } else {
+      cacheRemote(key, existing);
+    }
+    return existing;
+  }
+
+  @Override
+  public void put(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    backing.put(key, model, ttl);
+    seenKeys.put(key);
+    afterCommit(() -> cacheLocal(key, model, ttl));
+  }
+
+  @Override
+  public Map<IdempotencyCacheKey, IdempotencyModel> getAll(Collection<IdempotencyCacheKey> keys) {
+    Map<IdempotencyCacheKey, IdempotencyModel> found = new HashMap<>();
+    List<IdempotencyCacheKey> remote = new ArrayList<>();
+    for (IdempotencyCacheKey key : keys) {
+      IdempotencyModel local = near.get(key);
+      if (local == null) {
+        remote.add(key);
+      } else if (local != ABSENT) {
+        found.put(key, local);
+      }
+    }
+    if (!remote.isEmpty()) {
+      Map<IdempotencyCacheKey, IdempotencyModel> fetched = backing.getAll(remote);
+      for (IdempotencyCacheKey key : remote) {
+        cacheRemote(key, fetched.get(key));
+      }
+      found.putAll(fetched);
+    }
+    return found;
+  }
+
+  @Override
+  public void putAll(Map<IdempotencyCacheKey, IdempotencyModel> models, Duration ttl) {
+    backing.putAll(models, ttl);
+    models.forEach((key, model) -> seenKeys.put(key));
+    afterCommit(() -> models.forEach((key, model) -> cacheLocal(key, model, ttl)));
+  }
+
+  @Override
+  public void removePending(IdempotencyCacheKey key) {
+    backing.removePending(key);
+    near.removePending(key);
+  }
+
+  @Override
+  public IdempotencyStoreStats stats() {
+    IdempotencyStoreStats local = near.stats();
+    IdempotencyStoreStats remote = backing.stats();
+    return new IdempotencyStoreStats(
+        local.hits() + remote.hits(),
+        remote.misses(),
+        local.evictions() + remote.evictions(),
+        remote.expirations(),
+        remote.size(),
+        remote.weight());
+  }
+
+  @Override
+  public void close() {
+    try {
+      near.close();
+    } finally {
+      backing.close();
+    }
+  }
+
+  // A write inside a transaction only reaches the local tier once the backing store committed it
+  private static void afterCommit(Runnable action) {
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      action.run();
+      return;
+    }
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            action.run();
+          }
+        });
+  }
+
+  private void cacheRemote(IdempotencyCacheKey key, IdempotencyModel remote) {
+    if (remote == null) {
+      near.put(key, ABSENT, negativeTtl);
+    } else {
+      seenKeys.put(key);
+      if (!remote.isPending()) {
+        near.put(key, remote, nearTtl);
+      }
+    }
+  }
+
+  private void cacheLocal(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    if (model.isPending()) {
+      // Drop any negative entry, the key now exists remotely
+      near.remove(key);
+    } else {
+      near.put(key, model, ttl.compareTo(nearTtl) < 0 ? ttl : nearTtl);
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Queues completed responses and writes them to a shared store in the background, so a request does
+ * not pay for a second round trip after its business transaction.
+ *
+ * <p>Queued records are served by {@link #get} until they are written, and writes to the same key
+ * coalesce into one. They are flushed in batches of {@code batch-size} at most {@code
+ * max-flush-delay} after being queued, and drained on {@link #close}. Once {@code capacity} keys
+ * are queued, new keys are written through synchronously so callers slow down to the store's pace.
+ *
+ * <p>Writes made inside a transaction also go straight through, so they commit with it.
+ * Reservations and their removal always go straight to the shared store. A key therefore stays
+ * reserved there until its response has been written, and other instances keep waiting for it
+ * rather than executing it again.
+ */
+@Slf4j
+public class WriteBehindIdempotencyStore implements IdempotencyStore {
+
+  private final IdempotencyStore backing;
+  private final int capacity;
+  private final int batchSize;
+  private final Map<IdempotencyCacheKey, Write> queue = new ConcurrentHashMap<>();
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+  private final ScheduledExecutorService flusher;
+  private final Timer flushes;
+  private final Counter writeThroughs;
+  private final Counter failures;
+
+  public WriteBehindIdempotencyStore(
+      IdempotencyStore backing,
+      IdempotencyProperties.WriteBehind properties,
+      MeterRegistry meterRegistry) {
+    this.backing = backing;
+    this.capacity = properties.getCapacity();
+    this.batchSize = properties.getBatchSize();
+    Gauge.builder("idempotency.store.write_behind.queue", queue, Map::size)
+        .description("Completed responses waiting to be written to the shared store")
+        .register(meterRegistry);
+    this.flushes =
+        Timer.builder("idempotency.store.write_behind.flush")
+            .description("Time spent writing one batch to the shared store")
+            .register(meterRegistry);
+    this.writeThroughs =
+        Counter.builder("idempotency.store.write_behind.write_throughs")
+            .description("Responses written synchronously because the queue was full")
+            .register(meterRegistry);
+    this.failures =
+        Counter.builder("idempotency.store.write_behind.failures")
+            .description("Batches the shared store rejected, retried on the next flush")
+            .register(meterRegistry);
+    // A single thread, so flushes never overlap
+    this.flusher =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("idempotency-write-behind").daemon().factory());
+    long delay = properties.getMaxFlushDelay().toNanos();
+    this.flusher.scheduleWithFixedDelay(this::flush, delay, delay, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public IdempotencyModel get(IdempotencyCacheKey key) {
+    Write queued = queue.get(key);
+    return queued != null ? queued.model() : backing.get(key);
+  }
+
+  @Override
+  public IdempotencyModel putIfAbsent(
+      IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    Write queued = queue.get(key);
+    return queued != null ? queued.model() : backing.putIfAbsent(key, model, ttl);
+  }
+
+  @Override
+  public void put(IdempotencyCacheKey key, IdempotencyModel model, Duration ttl) {
+    if (TransactionSynchronizationManager.isActualTransactionActive()) {
+      // The caller wants the record to commit or roll back with its own write
+      queue.remove(key);
+      backing.put(key, model, ttl);
+      return;
+    }
+    // Replacing a queued key does not grow the queue, so only new keys are held back
+    if (queue.size() >= capacity && !queue.containsKey(key)) {
+      writeThroughs.increment();
+      backing.put(key, model, ttl);
+      return;
+    }
+    queue.put(key, new Write(model, ttl));
+    if (queue.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+      flusher.execute(this::flush);
+    }
+  }
+
+  @Override
+  public Map<IdempotencyCacheKey, IdempotencyModel> getAll(Collection<IdempotencyCacheKey> keys) {
+    Map<IdempotencyCacheKey, IdempotencyModel> found = new HashMap<>();
+    List<IdempotencyCacheKey> remote = new ArrayList<>();
+    for (IdempotencyCacheKey key : keys) {
+      Write queued = queue.get(key);
+      if (queued == null) {
+        remote.add(key);
+      } else {
+        found.put(key, queued.model());
+      }
+    }
+    if (!remote.isEmpty()) {
+      found.putAll(backing.getAll(remote));
+    }
+    return found;
+  }
+
+  @Override
+  public void putAll(Map<IdempotencyCacheKey, IdempotencyModel> models, Duration ttl) {
+    models.forEach((key, model) -> put(key, model, ttl));
+  }
+
+  @Override
+  public void removePending(IdempotencyCacheKey key) {
+    backing.removePending(key);
+  }
+
+  @Override
+  public IdempotencyStoreStats stats() {
+    return backing.stats();
+  }
+
+  @Override
+  public void close() {
+    flusher.shutdown();
+    try {
+      if (!flusher.awaitTermination(5, TimeUnit.SECONDS)) {
+        flusher.shutdownNow();
+      }
+      if (!flush()) {
+        log.warn("Dropped {} idempotency records that could not be written", queue.size());
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } finally {
+      backing.close();
+    }
+  }
+
+  int queued() {
+    return queue.size();
+  }
+
+  /** Writes everything queued so far, returns false if the shared store rejected a batch. */
+  boolean flush() {
+    flushRequested.set(false);
+    while (!queue.isEmpty()) {
+      Map<IdempotencyCacheKey, Write> batch = new HashMap<>();
+      for (Map.Entry<IdempotencyCacheKey, Write> entry : queue.entrySet()) {
+        batch.put(entry.getKey(), entry.getValue());
+        if (batch.size() == batchSize) {
+          break;
+        }
+      }
+      // TTLs are relative, so a record outlives its TTL by at most the time it spent queued
+      Map<Duration, Map<IdempotencyCacheKey, IdempotencyModel>> byTtl = new HashMap<>();
+      batch.forEach(
+          (key, write) ->
+              byTtl.computeIfAbsent(write.ttl(), ttl -> new HashMap<>()).put(key, write.model()));
+      long start = System.nanoTime();
+      try {
+        byTtl.forEach((ttl, models) -> backing.putAll(models, ttl));
+      } catch (RuntimeException ex) {
+        // Keep the records queued, and served locally, until a later flush gets them through
+        failures.increment();
+        log.warn("Writing {} idempotency records to the shared store failed", batch.size(), ex);
+        return false;
+      } finally {
+        flushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+      // Only drop what was written, a newer write to the same key stays queued
+      batch.forEach(queue::remove);
+    }
+    return true;
+  }
+
+  private record Write(IdempotencyModel model, Duration ttl) {}
+}
@@ -0,0 +1,8 @@
+CREATE TABLE IF NOT EXISTS idempotency_records (
+    cache_key  VARBINARY(2048) NOT NULL PRIMARY KEY,
+    pending    BOOLEAN         NOT NULL,
+    record     VARBINARY       NOT NULL,
+    expires_at BIGINT          NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_idempotency_records_expires_at ON idempotency_records (expires_at);
@@ -1,28 +1,57 @@
 package com.example.idempotency.idempotency_service.common;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotencyInFlightException;
 import com.example.idempotency.idempotency_service.services.IdempotencyService;
+import com.example.idempotency.idempotency_service.stores.InMemoryIdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import jakarta.servlet.http.HttpServletRequest;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jdk.jfr.consumer.RecordingStream;
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
-import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import tools.jackson.databind.ObjectMapper;
 
 @ExtendWith(MockitoExtension.class)
@@ -32,13 +61,32 @@ class TestIdempotencyAspect {
 
   private final ObjectMapper objectMapper = new ObjectMapper();
 
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final IdempotencyMetrics metrics =
+      new IdempotencyMetrics(meterRegistry, ObservationRegistry.NOOP);
+
   @Mock private ProceedingJoinPoint joinPoint;
 
+  @Mock private MethodSignature signature;
+
   private IdempotencyAspect aspect;
 
   @BeforeEach
-  void setUp() {
-    aspect = new IdempotencyAspect(idempotencyService, objectMapper);
+  void setUp() throws NoSuchMethodException {
+    lenient().when(joinPoint.getSignature()).thenReturn(signature);
+    lenient()
+        .when(signature.getMethod())
+        .thenReturn(TestIdempotencyAspect.class.getDeclaredMethod("idempotentEndpoint"));
+    aspect =
+        new IdempotencyAspect(
+            idempotencyService,
+            new RequestFingerprinter(objectMapper, new IdempotencyProperties()),
+            new IdempotencyProperties(),
+            metrics,
+            TransactionOperations.withoutTransaction(),
+            new IdempotentEndpointRegistry(new IdempotencyProperties()),
+            new ErrorResponses(new IdempotencyProperties()));
   }
 
   @AfterEach
@@ -76,19 +124,337 @@ class TestIdempotencyAspect {
   }
 
   @Test
-  void hash_whenAlgorithmMissing_shouldWrapInIdempotancyException() {
-    IdempotencyAspect aspect = new IdempotencyAspect(idempotencyService, new ObjectMapper());
-    try (MockedStatic<MessageDigest> mocked = mockStatic(MessageDigest.class)) {
-      mocked
-          .when(() -> MessageDigest.getInstance("SHA-256"))
-          .thenThrow(new NoSuchAlgorithmException("No algorithm"));
-      IdempotancyException ex =
-          assertThrows(IdempotancyException.class, () -> aspect.hash("input"));
-      assertEquals("Request Hash generation failed", ex.getMessage());
-      assertTrue(ex.getCause() instanceof NoSuchAlgorithmException);
+  void whenDuplicatesArriveConcurrently_thenProceedOnlyOnce() throws Throwable {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    InMemoryIdempotencyStore store =
+        new InMemoryIdempotencyStore(properties.getStore().getMemory());
+    IdempotencyService service = new IdempotencyService(store, objectMapper, properties, metrics);
+    IdempotencyAspect aspect =
+        new IdempotencyAspect(
+            service,
+            new RequestFingerprinter(objectMapper, properties),
+            properties,
+            metrics,
+            TransactionOperations.withoutTransaction(),
+            new IdempotentEndpointRegistry(properties),
+            new ErrorResponses(properties));
+    HttpServletRequest request = postRequest("concurrent-key");
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch finish = new CountDownLatch(1);
+    AtomicInteger executions = new AtomicInteger();
+    when(joinPoint.getArgs()).thenReturn(new Object[] {"payload"});
+    when(joinPoint.proceed())
+        .thenAnswer(
+            invocation -> {
+              executions.incrementAndGet();
+              started.countDown();
+              finish.await();
+              return ResponseEntity.ok("created");
+            });
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Object> first = executor.submit(() -> invoke(aspect, request));
+      started.await();
+      Future<Object> second = executor.submit(() -> invoke(aspect, request));
+      Thread.sleep(100);
+      finish.countDown();
+
+      assertEquals("\"created\"", body(first.get(5, TimeUnit.SECONDS)));
+      assertEquals("\"created\"", body(second.get(5, TimeUnit.SECONDS)));
+      assertEquals(1, executions.get());
+      assertEquals(1, outcomes("EXECUTED"));
+      assertEquals(1, outcomes("REPLAYED"));
+      assertEquals(1, meterRegistry.get("idempotency.in_flight.waits").counter().count());
+    } finally {
+      executor.shutdownNow();
+      service.close();
+      store.close();
+    }
+  }
+
+  @Test
+  void whenDuplicatesWaitOnVirtualThreads_thenCarrierIsNotPinned() throws Throwable {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    InMemoryIdempotencyStore store =
+        new InMemoryIdempotencyStore(properties.getStore().getMemory());
+    IdempotencyService service = new IdempotencyService(store, objectMapper, properties, metrics);
+    IdempotencyAspect aspect =
+        new IdempotencyAspect(
+            service,
+            new RequestFingerprinter(objectMapper, properties),
+            properties,
+            metrics,
+            TransactionOperations.withoutTransaction(),
+            new IdempotentEndpointRegistry(properties),
+            new ErrorResponses(properties));
+    HttpServletRequest request = postRequest("virtual-key");
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch finish = new CountDownLatch(1);
+    when(joinPoint.getArgs()).thenReturn(new Object[] {"payload"});
+    when(joinPoint.proceed())
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              finish.await();
+              return ResponseEntity.ok("created");
+            });
+    AtomicInteger pinned = new AtomicInteger();
+    try (RecordingStream recording = new RecordingStream();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO);
+      recording.onEvent("jdk.VirtualThreadPinned", event -> pinned.incrementAndGet());
+      recording.startAsync();
+      Future<Object> first = executor.submit(() -> invoke(aspect, request));
+      started.await();
+      List<Future<Object>> duplicates = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        duplicates.add(executor.submit(() -> invoke(aspect, request)));
+      }
+      Thread.sleep(100);
+      finish.countDown();
+
+      assertEquals("\"created\"", body(first.get(5, TimeUnit.SECONDS)));
+      for (Future<Object> duplicate : duplicates) {
+        assertEquals("\"created\"", body(duplicate.get(5, TimeUnit.SECONDS)));
+      }
+      recording.stop();
+      assertEquals(0, pinned.get());
+    } finally {
+      service.close();
+      store.close();
+    }
+  }
+
+  @Test
+  void whenDuplicateSupportsAsync_thenParkWithoutHoldingItsThread() throws Throwable {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    InMemoryIdempotencyStore store =
+        new InMemoryIdempotencyStore(properties.getStore().getMemory());
+    IdempotencyService service = new IdempotencyService(store, objectMapper, properties, metrics);
+    IdempotencyAspect aspect =
+        new IdempotencyAspect(
+            service,
+            new RequestFingerprinter(objectMapper, properties),
+            properties,
+            metrics,
+            TransactionOperations.withoutTransaction(),
+            new IdempotentEndpointRegistry(properties),
+            new ErrorResponses(properties));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch finish = new CountDownLatch(1);
+    when(joinPoint.getArgs()).thenReturn(new Object[] {"payload"});
+    when(joinPoint.proceed())
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              finish.await();
+              return ResponseEntity.ok("created");
+            });
+    MockHttpServletRequest duplicate = new MockHttpServletRequest("POST", "/api/payments");
+    duplicate.setAsyncSupported(true);
+    duplicate.addHeader(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "parked-key");
+    WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(duplicate);
+    asyncManager.setAsyncWebRequest(
+        new StandardServletAsyncWebRequest(duplicate, new MockHttpServletResponse()));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> first = executor.submit(() -> invoke(aspect, postRequest("parked-key")));
+      started.await();
+
+      assertNull(invoke(aspect, duplicate));
+      assertTrue(asyncManager.isConcurrentHandlingStarted());
+      assertFalse(asyncManager.hasConcurrentResult());
+
+      finish.countDown();
+      assertEquals("\"created\"", body(first.get(5, TimeUnit.SECONDS)));
+      assertTrue(asyncManager.hasConcurrentResult());
+      assertEquals("\"created\"", body(asyncManager.getConcurrentResult()));
+      assertEquals(1, outcomes("REPLAYED"));
+    } finally {
+      executor.shutdownNow();
+      service.close();
+      store.close();
+    }
+  }
+
+  @Test
+  void whenParkedDuplicatesOwnerFails_thenItIsToldToRetry() throws Throwable {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    InMemoryIdempotencyStore store =
+        new InMemoryIdempotencyStore(properties.getStore().getMemory());
+    IdempotencyService service = new IdempotencyService(store, objectMapper, properties, metrics);
+    IdempotencyAspect aspect =
+        new IdempotencyAspect(
+            service,
+            new RequestFingerprinter(objectMapper, properties),
+            properties,
+            metrics,
+            TransactionOperations.withoutTransaction(),
+            new IdempotentEndpointRegistry(properties),
+            new ErrorResponses(properties));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch finish = new CountDownLatch(1);
+    when(joinPoint.getArgs()).thenReturn(new Object[] {"payload"});
+    when(joinPoint.proceed())
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              finish.await();
+              throw new IllegalStateException("boom");
+            });
+    MockHttpServletRequest duplicate = new MockHttpServletRequest("POST", "/api/payments");
+    duplicate.setAsyncSupported(true);
+    duplicate.addHeader(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "failed-key");
+    WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(duplicate);
+    asyncManager.setAsyncWebRequest(
+        new StandardServletAsyncWebRequest(duplicate, new MockHttpServletResponse()));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> first = executor.submit(() -> invoke(aspect, postRequest("failed-key")));
+      started.await();
+
+      assertNull(invoke(aspect, duplicate));
+      finish.countDown();
+      assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+
+      // Not run again for the duplicate, which is sent the retryable conflict instead
+      verify(joinPoint, times(1)).proceed();
+      assertInstanceOf(IdempotencyInFlightException.class, asyncManager.getConcurrentResult());
+      assertEquals(1, outcomes("REJECTED"));
+    } finally {
+      executor.shutdownNow();
+      service.close();
+      store.close();
     }
   }
 
+  @Test
+  void whenDuplicateArrivesWithRejectPolicy_thenThrowInFlightConflict() throws Throwable {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    properties.getInFlight().setPolicy(IdempotencyProperties.InFlightPolicy.REJECT);
+    InMemoryIdempotencyStore store =
+        new InMemoryIdempotencyStore(properties.getStore().getMemory());
+    IdempotencyService service = new IdempotencyService(store, objectMapper, properties, metrics);
+    IdempotencyAspect aspect =
+        new IdempotencyAspect(
+            service,
+            new RequestFingerprinter(objectMapper, properties),
+            properties,
+            metrics,
+            TransactionOperations.withoutTransaction(),
+            new IdempotentEndpointRegistry(properties),
+            new ErrorResponses(properties));
+    HttpServletRequest request = postRequest("rejected-key");
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch finish = new CountDownLatch(1);
+    when(joinPoint.getArgs()).thenReturn(new Object[] {"payload"});
+    when(joinPoint.proceed())
+        .thenAnswer(
+            invocation -> {
+              started.countDown();
+              finish.await();
+              return ResponseEntity.ok("created");
+            });
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> first = executor.submit(() -> invoke(aspect, request));
+      started.await();
+      setRequest(request);
+      IdempotencyInFlightException ex =
+          assertThrows(
+              IdempotencyInFlightException.class, () -> aspect.applyIdempotency(joinPoint));
+      assertEquals(properties.getInFlight().getRetryAfter(), ex.getRetryAfter());
+      assertEquals(1, outcomes("REJECTED"));
+      finish.countDown();
+      assertEquals("\"created\"", body(first.get(5, TimeUnit.SECONDS)));
+    } finally {
+      executor.shutdownNow();
+      service.close();
+      store.close();
+    }
+  }
+
+  @Test
+  void whenOnlyTheBodyIsFingerprinted_thenTargetAndIfMatchStillTellRequestsApart()
+      throws Throwable {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    InMemoryIdempotencyStore store =
+        new InMemoryIdempotencyStore(properties.getStore().getMemory());
+    IdempotencyService service = new IdempotencyService(store, objectMapper, properties, metrics);
+    IdempotencyAspect aspect =
+        new IdempotencyAspect(
+            service,
+            new RequestFingerprinter(objectMapper, properties),
+            properties,
+            metrics,
+            TransactionOperations.withoutTransaction(),
+            new IdempotentEndpointRegistry(properties),
+            new ErrorResponses(properties));
+    when(signature.getMethod())
+        .thenReturn(
+            TestIdempotencyAspect.class.getDeclaredMethod(
+                "bodyEndpoint", String.class, Object.class));
+    try {
+      for (String id : List.of("A", "B")) {
+        when(joinPoint.getArgs()).thenReturn(new Object[] {id, "payload"});
+        when(joinPoint.proceed()).thenReturn(ResponseEntity.ok("updated " + id));
+        assertEquals("\"updated " + id + "\"", body(invoke(aspect, patchRequest(id, null))));
+      }
+      assertEquals(2, outcomes("EXECUTED"));
+
+      when(joinPoint.getArgs()).thenReturn(new Object[] {"A", "payload"});
+      assertThrows(IdempotancyException.class, () -> invoke(aspect, patchRequest("A", "\"7\"")));
+      assertEquals(1, outcomes("CONFLICT"));
+    } finally {
+      service.close();
+      store.close();
+    }
+  }
+
+  private double outcomes(String outcome) {
+    return meterRegistry.get("idempotency.requests").tag("outcome", outcome).counter().count();
+  }
+
+  private Object invoke(IdempotencyAspect aspect, HttpServletRequest request) throws Exception {
+    setRequest(request);
+    try {
+      return aspect.applyIdempotency(joinPoint);
+    } catch (Exception ex) {
+      throw ex;
+    } catch (Throwable ex) {
+      throw new IllegalStateException(ex);
+    } finally {
+      RequestContextHolder.resetRequestAttributes();
+    }
+  }
+
+  private static String body(Object response) {
+    return new String((byte[]) ((ResponseEntity<?>) response).getBody(), StandardCharsets.UTF_8);
+  }
+
+  private static HttpServletRequest postRequest(String idempotencyKey) {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getMethod()).thenReturn("POST");
+    when(request.getRequestURI()).thenReturn("/api/payments");
+    when(request.getHeader(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY)).thenReturn(idempotencyKey);
+    return request;
+  }
+
+  private static HttpServletRequest patchRequest(String id, String ifMatch) {
+    MockHttpServletRequest request = new MockHttpServletRequest("PATCH", "/api/payments/" + id);
+    request.addHeader(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "body-key");
+    if (ifMatch != null) {
+      request.addHeader(HttpHeaders.IF_MATCH, ifMatch);
+    }
+    return request;
+  }
+
+  @Idempotent
+  private static void idempotentEndpoint() {}
+
+  @Idempotent(fingerprint = Idempotent.Fingerprint.BODY)
+  private static void bodyEndpoint(@PathVariable String id, @RequestBody Object body) {}
+
   private void setRequest(HttpServletRequest request) {
     RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
   }
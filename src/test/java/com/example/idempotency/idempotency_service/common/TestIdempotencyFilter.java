@@ -0,0 +1,244 @@
+package com.example.idempotency.idempotency_service.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import com.example.idempotency.idempotency_service.services.IdempotencyService;
+import com.example.idempotency.idempotency_service.stores.InMemoryIdempotencyStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import jakarta.servlet.Filter;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+import tools.jackson.databind.ObjectMapper;
+
+@ExtendWith(MockitoExtension.class)
+class TestIdempotencyFilter {
+
+  private static final String BODY = "{\"amount\":10}";
+
+  @Mock private IdempotentEndpointRegistry endpoints;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final IdempotencyProperties properties = new IdempotencyProperties();
+  private final IdempotencyMetrics metrics =
+      new IdempotencyMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP);
+
+  private InMemoryIdempotencyStore store;
+  private IdempotencyService service;
+  private IdempotencyFilter filter;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    store = new InMemoryIdempotencyStore(properties.getStore().getMemory());
+    service = new IdempotencyService(store, objectMapper, properties, metrics);
+    filter =
+        new IdempotencyFilter(
+            endpoints,
+            service,
+            new RequestFingerprinter(objectMapper, properties),
+            properties,
+            metrics,
+            objectMapper,
+            new ErrorResponses(properties));
+    IdempotentEndpoint endpoint =
+        new IdempotentEndpoint(
+            "POST /api/test",
+            IdempotencyAspect.IDEMPOTENCY_HEADER_KEY,
+            true,
+            Duration.ofHours(1),
+            -1,
+            IdempotencyProperties.InFlightPolicy.WAIT,
+            true);
+    when(endpoints.match(any())).thenReturn(endpoint);
+    // Not asked for requests rejected before their key is built
+    lenient().when(endpoints.endpointId(any(), any())).thenReturn(endpoint.id());
+  }
+
+  @AfterEach
+  void tearDown() {
+    service.close();
+    store.close();
+  }
+
+  @Test
+  void whenHandlerReadsWithAListener_thenTheBufferedBodyIsHandedOver() throws Exception {
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    AtomicBoolean allRead = new AtomicBoolean();
+
+    filter.doFilter(
+        postRequest("listener-key"),
+        new MockHttpServletResponse(),
+        new MockFilterChain(
+            new HttpServlet() {},
+            (request, response, chain) -> {
+              ServletInputStream in = request.getInputStream();
+              in.setReadListener(
+                  new ReadListener() {
+                    @Override
+                    public void onDataAvailable() throws IOException {
+                      while (in.isReady() && !in.isFinished()) {
+                        read.write(in.read());
+                      }
+                    }
+
+                    @Override
+                    public void onAllDataRead() {
+                      allRead.set(true);
+                    }
+
+                    @Override
+                    public void onError(Throwable ex) {
+                      throw new AssertionError(ex);
+                    }
+                  });
+              response.getWriter().write("ok");
+            }));
+
+    assertEquals(BODY, read.toString(StandardCharsets.UTF_8));
+    assertTrue(allRead.get());
+  }
+
+  @Test
+  void whenResponseIsStored_thenItIsKeptApartFromTheAdvicesKeys() throws Exception {
+    filter.doFilter(
+        postRequest("namespace-key"),
+        new MockHttpServletResponse(),
+        new MockFilterChain(
+            new HttpServlet() {}, (request, response, chain) -> response.getWriter().write("ok")));
+
+    assertNull(store.get(IdempotencyCacheKey.of("POST /api/test", "namespace-key")));
+    assertNotNull(store.get(IdempotencyCacheKey.of("filter POST /api/test", "namespace-key")));
+  }
+
+  @Test
+  void whenDuplicateArrivesWhileInFlight_thenItIsParkedAndAnsweredOnceStored() throws Exception {
+    IdempotencyCacheKey cacheKey = IdempotencyCacheKey.of("filter POST /api/test", "parked-key");
+    RequestFingerprint requestHash = fingerprint(postRequest("parked-key"));
+    IdempotencyService.Reservation owner = service.reserve(cacheKey, requestHash);
+    MockHttpServletRequest request = postRequest("parked-key");
+    request.setAsyncSupported(true);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {}, failingFilter()));
+    assertTrue(request.isAsyncStarted());
+
+    IdempotencyModel stored =
+        service.putResponse(
+            cacheKey,
+            IdempotencyModel.builder()
+                .requestHash(requestHash)
+                .status(201)
+                .headers(IdempotencyModel.encodeHeaders(new HttpHeaders()))
+                .body("created".getBytes(StandardCharsets.UTF_8))
+                .build(),
+            Duration.ofHours(1));
+    service.release(cacheKey, owner, stored);
+
+    assertFalse(request.isAsyncStarted());
+    assertEquals(201, response.getStatus());
+    assertEquals("created", response.getContentAsString());
+  }
+
+  @Test
+  void whenParkedDuplicatesOwnerStoresNothing_thenItIsToldToRetry() throws Exception {
+    IdempotencyCacheKey cacheKey = IdempotencyCacheKey.of("filter POST /api/test", "failed-key");
+    IdempotencyService.Reservation owner =
+        service.reserve(cacheKey, fingerprint(postRequest("failed-key")));
+    MockHttpServletRequest request = postRequest("failed-key");
+    request.setAsyncSupported(true);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {}, failingFilter()));
+    service.release(cacheKey, owner, null);
+
+    assertFalse(request.isAsyncStarted());
+    assertEquals(409, response.getStatus());
+    assertNotNull(response.getHeader(HttpHeaders.RETRY_AFTER));
+  }
+
+  @Test
+  void whenContentLengthIsOverTheLimit_thenRejectWithoutReadingTheBody() throws Exception {
+    properties.setMaxFilterBodySize(DataSize.ofBytes(8));
+    MockHttpServletRequest request = postRequest("large-key");
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {}, failingFilter()));
+
+    assertEquals(413, response.getStatus());
+    assertEquals(BODY.length(), request.getInputStream().available());
+  }
+
+  @Test
+  void whenBodyWithoutContentLengthRunsOverTheLimit_thenReject() throws Exception {
+    properties.setMaxFilterBodySize(DataSize.ofBytes(8));
+    HttpServletRequest request =
+        new HttpServletRequestWrapper(postRequest("chunked-key")) {
+          @Override
+          public int getContentLength() {
+            return -1;
+          }
+
+          @Override
+          public long getContentLengthLong() {
+            return -1;
+          }
+        };
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {}, failingFilter()));
+
+    assertEquals(413, response.getStatus());
+    assertNull(store.get(IdempotencyCacheKey.of("filter POST /api/test", "chunked-key")));
+  }
+
+  private RequestFingerprint fingerprint(MockHttpServletRequest request) throws IOException {
+    return new RequestFingerprinter(objectMapper, properties)
+        .fingerprint(
+            RequestFingerprinter.target(request),
+            request.getInputStream(),
+            new ByteArrayOutputStream());
+  }
+
+  // A duplicate must never reach the handler
+  private static Filter failingFilter() {
+    return (request, response, chain) -> fail("Duplicate was executed");
+  }
+
+  private static MockHttpServletRequest postRequest(String idempotencyKey) {
+    MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/test");
+    request.addHeader(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, idempotencyKey);
+    request.setContentType("application/json");
+    request.setContent(BODY.getBytes(StandardCharsets.UTF_8));
+    return request;
+  }
+}
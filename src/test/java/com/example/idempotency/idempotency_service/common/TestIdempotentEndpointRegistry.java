@@ -0,0 +1,92 @@
+package com.example.idempotency.idempotency_service.common;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.servlet.HandlerMapping;
+
+class TestIdempotentEndpointRegistry {
+
+  private final IdempotencyProperties properties = new IdempotencyProperties();
+  private final IdempotentEndpointRegistry registry = new IdempotentEndpointRegistry(properties);
+
+  @Test
+  void get_defaults_fallBackToProperties() throws NoSuchMethodException {
+    IdempotentEndpoint endpoint = registry.get(method("defaults"));
+
+    assertNull(endpoint.id());
+    assertEquals(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, endpoint.header());
+    assertTrue(endpoint.required());
+    assertEquals(properties.getDefaultTtl(), endpoint.ttl());
+    assertEquals(properties.getInFlight().getPolicy(), endpoint.inFlightPolicy());
+    assertFalse(endpoint.handles("GET"));
+    assertTrue(endpoint.handles("PATCH"));
+    assertSame(endpoint, registry.get(method("defaults")));
+  }
+
+  @Test
+  void get_attributes_overrideDefaults() throws NoSuchMethodException {
+    IdempotentEndpoint endpoint = registry.get(method("customised", String.class, Object.class));
+
+    assertEquals("X-Request-Id", endpoint.header());
+    assertFalse(endpoint.required());
+    assertEquals(Duration.ofMinutes(15), endpoint.ttl());
+    assertEquals(IdempotencyProperties.InFlightPolicy.REJECT, endpoint.inFlightPolicy());
+    MockHttpServletRequest request = new MockHttpServletRequest("PATCH", "/things/id");
+    request.addHeader(HttpHeaders.IF_MATCH, "\"3\"");
+    Object body = new Object();
+    assertArrayEquals(
+        new Object[] {"PATCH /things/id \"3\"", body},
+        endpoint.fingerprinted(new Object[] {"id", body}, request));
+  }
+
+  @Test
+  void get_bodyFingerprintWithoutRequestBody_fails() {
+    assertThrows(IllegalStateException.class, () -> registry.get(method("noBody", String.class)));
+  }
+
+  @Test
+  void resource_joinsPathVariableValues() {
+    MockHttpServletRequest request = new MockHttpServletRequest("PATCH", "/things/42");
+    assertNull(IdempotentEndpointRegistry.resource(request));
+
+    request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Map.of("id", "42"));
+    assertEquals("42", IdempotentEndpointRegistry.resource(request));
+
+    request.setAttribute(
+        HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Map.of("id", "42", "account", "a"));
+    assertEquals("a/42", IdempotentEndpointRegistry.resource(request));
+  }
+
+  private static Method method(String name, Class<?>... parameterTypes)
+      throws NoSuchMethodException {
+    return TestIdempotentEndpointRegistry.class.getDeclaredMethod(name, parameterTypes);
+  }
+
+  @Idempotent
+  private static void defaults() {}
+
+  @Idempotent(
+      ttl = "15m",
+      header = "X-Request-Id",
+      required = false,
+      fingerprint = Idempotent.Fingerprint.BODY,
+      inFlight = IdempotencyProperties.InFlightPolicy.REJECT)
+  private static void customised(@PathVariable String id, @RequestBody Object body) {}
+
+  @Idempotent(fingerprint = Idempotent.Fingerprint.BODY)
+  private static void noBody(@PathVariable String id) {}
+}
@@ -0,0 +1,105 @@
+package com.example.idempotency.idempotency_service.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mockStatic;
+
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.dtos.PaymentDto;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.mockito.MockedStatic;
+import tools.jackson.databind.ObjectMapper;
+
+class TestRequestFingerprinter {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @ParameterizedTest
+  @EnumSource(IdempotencyProperties.FingerprintAlgorithm.class)
+  void fingerprint_isStableForEqualArgsAndDiffersOtherwise(
+      IdempotencyProperties.FingerprintAlgorithm algorithm) {
+    RequestFingerprinter fingerprinter = fingerprinter(algorithm);
+    PaymentDto payment = PaymentDto.builder().amount(BigDecimal.TEN).currency("GBP").build();
+    PaymentDto samePayment = PaymentDto.builder().amount(BigDecimal.TEN).currency("GBP").build();
+    PaymentDto otherPayment = PaymentDto.builder().amount(BigDecimal.ONE).currency("GBP").build();
+
+    RequestFingerprint first = fingerprinter.fingerprint(new Object[] {"id-1", payment});
+
+    assertEquals(first, fingerprinter.fingerprint(new Object[] {"id-1", samePayment}));
+    assertNotEquals(first, fingerprinter.fingerprint(new Object[] {"id-2", samePayment}));
+    assertNotEquals(first, fingerprinter.fingerprint(new Object[] {"id-1", otherPayment}));
+  }
+
+  @ParameterizedTest
+  @EnumSource(IdempotencyProperties.FingerprintAlgorithm.class)
+  void sink_isIndependentOfHowBytesAreChunked(
+      IdempotencyProperties.FingerprintAlgorithm algorithm) {
+    byte[] input =
+        "{\"amount\":10,\"currency\":\"GBP\",\"padding\":\"0123456789abcdefghij\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    RequestFingerprinter.FingerprintSink sink = RequestFingerprinter.newSink(algorithm);
+
+    sink.reset();
+    sink.write(input, 0, input.length);
+    RequestFingerprint whole = sink.finish();
+
+    for (int chunk = 1; chunk < 20; chunk++) {
+      sink.reset();
+      for (int off = 0; off < input.length; off += chunk) {
+        if (chunk == 1) {
+          sink.write(input[off]);
+        } else {
+          sink.write(input, off, Math.min(chunk, input.length - off));
+        }
+      }
+      assertEquals(whole, sink.finish(), "chunk size " + chunk);
+    }
+  }
+
+  @ParameterizedTest
+  @EnumSource(IdempotencyProperties.FingerprintAlgorithm.class)
+  void sink_matchesReferenceVector(IdempotencyProperties.FingerprintAlgorithm algorithm) {
+    RequestFingerprinter.FingerprintSink sink = RequestFingerprinter.newSink(algorithm);
+    byte[] input = "hello".getBytes(StandardCharsets.UTF_8);
+    sink.reset();
+    sink.write(input, 0, input.length);
+    RequestFingerprint expected =
+        switch (algorithm) {
+          // First 128 bits of SHA-256("hello")
+          case SHA_256 -> new RequestFingerprint(0x2cf24dba5fb0a30eL, 0x26e83b2ac5b9e29eL);
+          case MURMUR3_128 -> new RequestFingerprint(0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L);
+        };
+    assertEquals(expected, sink.finish());
+  }
+
+  @Test
+  void fingerprint_whenAlgorithmMissing_shouldWrapInIdempotancyException() {
+    try (MockedStatic<MessageDigest> mocked = mockStatic(MessageDigest.class)) {
+      mocked
+          .when(() -> MessageDigest.getInstance("SHA-256"))
+          .thenThrow(new NoSuchAlgorithmException("No algorithm"));
+      RequestFingerprinter fingerprinter =
+          fingerprinter(IdempotencyProperties.FingerprintAlgorithm.SHA_256);
+      IdempotancyException ex =
+          assertThrows(
+              IdempotancyException.class, () -> fingerprinter.fingerprint(new Object[] {"input"}));
+      assertEquals("Request Hash generation failed", ex.getMessage());
+      assertTrue(ex.getCause() instanceof NoSuchAlgorithmException);
+    }
+  }
+
+  private RequestFingerprinter fingerprinter(IdempotencyProperties.FingerprintAlgorithm algorithm) {
+    IdempotencyProperties properties = new IdempotencyProperties();
+    properties.getFingerprint().setAlgorithm(algorithm);
+    return new RequestFingerprinter(objectMapper, properties);
+  }
+}
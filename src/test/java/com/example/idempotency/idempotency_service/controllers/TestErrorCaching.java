@@ -0,0 +1,86 @@
+package com.example.idempotency.idempotency_service.controllers;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyAspect;
+import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
+import com.example.idempotency.idempotency_service.dtos.BatchPaymentItemDto;
+import com.example.idempotency.idempotency_service.dtos.PaymentDto;
+import com.example.idempotency.idempotency_service.services.PaymentService;
+import java.math.BigDecimal;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import tools.jackson.databind.ObjectMapper;
+
+@TestPropertySource(properties = "idempotency.errors.enabled=true")
+class TestErrorCaching extends TestBaseController {
+
+  @MockitoSpyBean private PaymentService paymentService;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  // A request that failed validation fails the same way on retry, without running the handler
+  @Test
+  void createPayment_invalidRequestRetried_replaysStoredError() throws Exception {
+    String body =
+        objectMapper.writeValueAsString(
+            PaymentDto.builder().amount(BigDecimal.valueOf(90.00)).build());
+
+    MvcResult first =
+        createPayment("error-key-1", body)
+            .andExpect(status().isBadRequest())
+            .andExpect(jsonPath("$.message").value("Amount and Currency are required fields"))
+            .andReturn();
+    createPayment("error-key-1", body)
+        .andExpect(status().isBadRequest())
+        .andExpect(content().bytes(first.getResponse().getContentAsByteArray()));
+
+    verify(paymentService, times(1)).createPayment(any());
+  }
+
+  // The batch endpoint shares the single create endpoint's keys, stored errors included
+  @Test
+  void createPayments_keyWithStoredError_replaysTheErrorForThatItem() throws Exception {
+    PaymentDto dto = PaymentDto.builder().amount(BigDecimal.valueOf(95.00)).currency("ERB").build();
+    doThrow(new IdempotancyException("Currency is not accepted"))
+        .when(paymentService)
+        .createPayment(any());
+    createPayment("error-key-2", objectMapper.writeValueAsString(dto))
+        .andExpect(status().isBadRequest());
+
+    this.mockMvc
+        .perform(
+            post("/api/payments/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(
+                    objectMapper.writeValueAsString(
+                        List.of(new BatchPaymentItemDto("error-key-2", dto)))))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].status").value(400))
+        .andExpect(jsonPath("$[0].replayed").value(true))
+        .andExpect(jsonPath("$[0].error").value("Currency is not accepted"))
+        .andExpect(jsonPath("$[0].payment").doesNotExist());
+
+    verify(paymentService, never()).createPayments(any());
+  }
+
+  private ResultActions createPayment(String key, String body) throws Exception {
+    return this.mockMvc.perform(
+        post("/api/payments")
+            .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, key)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(body));
+  }
+}
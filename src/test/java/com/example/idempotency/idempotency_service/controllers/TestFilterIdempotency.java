@@ -0,0 +1,109 @@
+package com.example.idempotency.idempotency_service.controllers;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyAspect;
+import com.example.idempotency.idempotency_service.dtos.PaymentDto;
+import com.example.idempotency.idempotency_service.models.Payment;
+import com.example.idempotency.idempotency_service.repositories.PaymentRepository;
+import java.math.BigDecimal;
+import java.time.Instant;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import tools.jackson.databind.ObjectMapper;
+
+@TestPropertySource(properties = "idempotency.enforcement=FILTER")
+class TestFilterIdempotency extends TestBaseController {
+
+  @Autowired private PaymentRepository paymentRepository;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  void createPayment_sameKeyAndBody_replaysStoredBytes() throws Exception {
+    String body =
+        objectMapper.writeValueAsString(
+            PaymentDto.builder().amount(BigDecimal.valueOf(70.00)).currency("FLT").build());
+
+    MvcResult first = createPayment("filter-key-1", body).andExpect(status().isOk()).andReturn();
+    createPayment("filter-key-1", body)
+        .andExpect(status().isOk())
+        .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+        .andExpect(content().bytes(first.getResponse().getContentAsByteArray()));
+
+    Assertions.assertThat(countPayments()).isEqualTo(1L);
+  }
+
+  @Test
+  void createPayment_sameKeyAndDifferentBody_returnsClientError() throws Exception {
+    createPayment(
+            "filter-key-2",
+            objectMapper.writeValueAsString(
+                PaymentDto.builder().amount(BigDecimal.valueOf(80.00)).currency("FLC").build()))
+        .andExpect(status().isOk());
+
+    createPayment(
+            "filter-key-2",
+            objectMapper.writeValueAsString(
+                PaymentDto.builder().amount(BigDecimal.valueOf(81.00)).currency("FLC").build()))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.status").value(400))
+        .andExpect(jsonPath("$.path").value("/api/payments"));
+  }
+
+  @Test
+  void partialUpdatePayment_sameKeyAndBodyWithAnotherIfMatch_returnsClientError() throws Exception {
+    Payment pay =
+        paymentRepository.saveAndFlush(
+            Payment.builder()
+                .amount(BigDecimal.valueOf(90.00))
+                .currency("FLP")
+                .createdAt(Instant.now())
+                .build());
+    String body =
+        objectMapper.writeValueAsString(
+            PaymentDto.builder().amount(BigDecimal.valueOf(91.00)).build());
+
+    updatePayment(pay, "\"" + pay.getVersion() + "\"", body).andExpect(status().isOk());
+    updatePayment(pay, "\"" + (pay.getVersion() + 1) + "\"", body)
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  void createPayment_withoutKey_isRejectedBeforeTheHandler() throws Exception {
+    this.mockMvc
+        .perform(post("/api/payments").contentType(MediaType.APPLICATION_JSON).content("not json"))
+        .andExpect(status().isBadRequest())
+        .andExpect(jsonPath("$.message").value("No idempotency header found"));
+  }
+
+  private ResultActions createPayment(String key, String body) throws Exception {
+    return this.mockMvc.perform(
+        post("/api/payments")
+            .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, key)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(body));
+  }
+
+  private ResultActions updatePayment(Payment pay, String ifMatch, String body) throws Exception {
+    return this.mockMvc.perform(
+        patch("/api/payments/" + pay.getId())
+            .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "filter-patch-key")
+            .header(HttpHeaders.IF_MATCH, ifMatch)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(body));
+  }
+
+  private long countPayments() {
+    return paymentRepository.findAll().stream().filter(p -> p.getCurrency().equals("FLT")).count();
+  }
+}
@@ -2,18 +2,22 @@ package com.example.idempotency.idempotency_service.controllers;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import com.example.idempotency.idempotency_service.common.IdempotencyAspect;
+import com.example.idempotency.idempotency_service.dtos.BatchPaymentItemDto;
 import com.example.idempotency.idempotency_service.dtos.PaymentDto;
 import com.example.idempotency.idempotency_service.models.Payment;
 import com.example.idempotency.idempotency_service.repositories.PaymentRepository;
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.List;
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MvcResult;
 import tools.jackson.databind.ObjectMapper;
@@ -132,6 +136,23 @@ class TestPaymentController extends TestBaseController {
         .andExpect(status().is4xxClientError());
   }
 
+  // Keys too long to store are refused before the handler runs
+  @Test
+  void createPayment_overlongIdempotencyKey_returnsClientError() throws Exception {
+    PaymentDto dto = PaymentDto.builder().amount(BigDecimal.valueOf(75.00)).currency("LNG").build();
+    this.mockMvc
+        .perform(
+            post("/api/payments")
+                .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "k".repeat(256))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(dto)))
+        .andExpect(status().isBadRequest());
+
+    Assertions.assertThat(
+            paymentRepository.findAll().stream().filter(p -> p.getCurrency().equals("LNG")))
+        .isEmpty();
+  }
+
   // Validation Tests
   @Test
   void createPayment_missingRequiredField_returnsValidationError() throws Exception {
@@ -161,6 +182,118 @@ class TestPaymentController extends TestBaseController {
         .andExpect(status().is4xxClientError());
   }
 
+  // -- Batch Create Payment Tests -- //
+  // Keys already used by the single endpoint are replayed, the rest are created once
+  @Test
+  void createPayments_mixOfNewAndSeenKeys_createsOnlyNewPayments() throws Exception {
+    PaymentDto seen =
+        PaymentDto.builder().amount(BigDecimal.valueOf(400.00)).currency("BAT").build();
+    PaymentDto fresh =
+        PaymentDto.builder().amount(BigDecimal.valueOf(401.00)).currency("BAT").build();
+    this.mockMvc
+        .perform(
+            post("/api/payments")
+                .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "batch-key-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(seen)))
+        .andExpect(status().isOk());
+
+    List<BatchPaymentItemDto> items =
+        List.of(
+            new BatchPaymentItemDto("batch-key-1", seen),
+            new BatchPaymentItemDto("batch-key-2", fresh),
+            new BatchPaymentItemDto(
+                "batch-key-3", PaymentDto.builder().amount(BigDecimal.ONE).build()));
+    MvcResult result1 =
+        this.mockMvc
+            .perform(
+                post("/api/payments/batch")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(objectMapper.writeValueAsString(items)))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].status").value(200))
+            .andExpect(jsonPath("$[0].replayed").value(true))
+            .andExpect(jsonPath("$[1].status").value(200))
+            .andExpect(jsonPath("$[1].replayed").value(false))
+            .andExpect(jsonPath("$[1].payment.id").exists())
+            .andExpect(jsonPath("$[2].status").value(400))
+            .andReturn();
+
+    String createdId =
+        objectMapper
+            .readTree(result1.getResponse().getContentAsString())
+            .get(1)
+            .get("payment")
+            .get("id")
+            .asString();
+    this.mockMvc
+        .perform(
+            post("/api/payments/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(items.subList(1, 2))))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].replayed").value(true))
+        .andExpect(jsonPath("$[0].payment.id").value(createdId));
+
+    // Replayed by the single create endpoint exactly as that endpoint would have sent it
+    this.mockMvc
+        .perform(
+            post("/api/payments")
+                .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "batch-key-2")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(fresh)))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"0\""))
+        .andExpect(jsonPath("$.id").value(createdId));
+
+    Assertions.assertThat(
+            paymentRepository.findAll().stream().filter(p -> p.getCurrency().equals("BAT")).count())
+        .isEqualTo(2L);
+  }
+
+  // A key reused with different data fails only that item
+  @Test
+  void createPayments_sameKeyDifferentRequest_returnsItemConflict() throws Exception {
+    PaymentDto dto =
+        PaymentDto.builder().amount(BigDecimal.valueOf(410.00)).currency("BAC").build();
+    PaymentDto changed =
+        PaymentDto.builder().amount(BigDecimal.valueOf(415.00)).currency("BAC").build();
+    this.mockMvc
+        .perform(
+            post("/api/payments/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(
+                    objectMapper.writeValueAsString(
+                        List.of(new BatchPaymentItemDto("batch-key-4", dto)))))
+        .andExpect(status().isOk());
+
+    this.mockMvc
+        .perform(
+            post("/api/payments/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(
+                    objectMapper.writeValueAsString(
+                        List.of(new BatchPaymentItemDto("batch-key-4", changed)))))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].status").value(400))
+        .andExpect(jsonPath("$[0].error").exists());
+  }
+
+  @Test
+  void createPayments_duplicateKeyInBatch_returnsClientError() throws Exception {
+    PaymentDto dto = PaymentDto.builder().amount(BigDecimal.TEN).currency("BAD").build();
+    this.mockMvc
+        .perform(
+            post("/api/payments/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(
+                    objectMapper.writeValueAsString(
+                        List.of(
+                            new BatchPaymentItemDto("batch-key-5", dto),
+                            new BatchPaymentItemDto("batch-key-5", dto)))))
+        .andExpect(status().is4xxClientError());
+  }
+
   // -- Partial Update Payment Tests -- //
   // When same request is sent with same Idempotent key it should return the same response
   @Test
@@ -282,6 +415,82 @@ class TestPaymentController extends TestBaseController {
         .andExpect(jsonPath("$.currency").value(pay.getCurrency()));
   }
 
+  // Keys are scoped to the resource, so reusing one on another payment updates that payment
+  @Test
+  void partialUpdatePayment_sameIdempotencyKeyOnAnotherPayment_updatesIt() throws Exception {
+    Payment first =
+        paymentRepository.saveAndFlush(
+            Payment.builder()
+                .amount(BigDecimal.valueOf(260.00))
+                .currency("GBP")
+                .createdAt(Instant.now())
+                .build());
+    Payment second =
+        paymentRepository.saveAndFlush(
+            Payment.builder()
+                .amount(BigDecimal.valueOf(270.00))
+                .currency("GBP")
+                .createdAt(Instant.now())
+                .build());
+
+    String body =
+        objectMapper.writeValueAsString(
+            PaymentDto.builder().amount(BigDecimal.valueOf(275.00)).build());
+    for (Payment pay : List.of(first, second)) {
+      this.mockMvc
+          .perform(
+              patch("/api/payments/" + pay.getId())
+                  .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "patch-shared-key")
+                  .contentType(MediaType.APPLICATION_JSON)
+                  .content(body))
+          .andExpect(status().isOk())
+          .andExpect(jsonPath("$.id").value(pay.getId().toString()));
+    }
+
+    Assertions.assertThat(paymentRepository.findById(second.getId()).orElseThrow().getAmount())
+        .isEqualByComparingTo(BigDecimal.valueOf(275.00));
+  }
+
+  // A PATCH naming a version that another PATCH already replaced is rejected, not applied
+  @Test
+  void partialUpdatePayment_staleIfMatch_returnsPreconditionFailed() throws Exception {
+    Payment pay =
+        paymentRepository.saveAndFlush(
+            Payment.builder()
+                .amount(BigDecimal.valueOf(250.00))
+                .currency("GBP")
+                .createdAt(Instant.now())
+                .build());
+    String etag = "\"" + pay.getVersion() + "\"";
+
+    this.mockMvc
+        .perform(
+            patch("/api/payments/" + pay.getId().toString())
+                .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "patch-unique-key-127")
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(
+                    objectMapper.writeValueAsString(
+                        PaymentDto.builder().amount(BigDecimal.valueOf(255.00)).build())))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"" + (pay.getVersion() + 1) + "\""));
+
+    this.mockMvc
+        .perform(
+            patch("/api/payments/" + pay.getId().toString())
+                .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "patch-unique-key-128")
+                .header(HttpHeaders.IF_MATCH, etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(
+                    objectMapper.writeValueAsString(
+                        PaymentDto.builder().amount(BigDecimal.valueOf(260.00)).build())))
+        .andExpect(status().isPreconditionFailed())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"" + (pay.getVersion() + 1) + "\""));
+
+    Assertions.assertThat(paymentRepository.findById(pay.getId()).orElseThrow().getAmount())
+        .isEqualByComparingTo(BigDecimal.valueOf(255.00));
+  }
+
   @Test
   void partialUpdatePayment_missingIdempotencyKey_returnsClientError() throws Exception {
     Payment pay =
@@ -0,0 +1,64 @@
+package com.example.idempotency.idempotency_service.controllers;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.reset;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyAspect;
+import com.example.idempotency.idempotency_service.dtos.PaymentDto;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.repositories.PaymentRepository;
+import com.example.idempotency.idempotency_service.stores.IdempotencyStore;
+import java.math.BigDecimal;
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import tools.jackson.databind.ObjectMapper;
+
+@TestPropertySource(
+    properties = {"idempotency.store.type=JDBC", "idempotency.store.jdbc.transactional=true"})
+class TestTransactionalIdempotency extends TestBaseController {
+
+  @Autowired private PaymentRepository paymentRepository;
+  @MockitoSpyBean private IdempotencyStore idempotencyStore;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  // A response that cannot be stored takes its payment down with it, so the retry creates it once
+  @Test
+  void createPayment_whenResponseCannotBeStored_rollsBackPayment() throws Exception {
+    PaymentDto dto =
+        PaymentDto.builder().amount(BigDecimal.valueOf(500.00)).currency("TXN").build();
+    doThrow(new IllegalStateException("store unavailable"))
+        .when(idempotencyStore)
+        .put(eq(IdempotencyCacheKey.of("POST /api/payments", "tx-key-1")), any(), any());
+
+    assertThrows(Exception.class, () -> createPayment(dto));
+    Assertions.assertThat(countPayments()).isZero();
+
+    reset(idempotencyStore);
+    createPayment(dto);
+    createPayment(dto);
+    Assertions.assertThat(countPayments()).isEqualTo(1L);
+  }
+
+  private void createPayment(PaymentDto dto) throws Exception {
+    this.mockMvc
+        .perform(
+            post("/api/payments")
+                .header(IdempotencyAspect.IDEMPOTENCY_HEADER_KEY, "tx-key-1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(dto)))
+        .andExpect(status().isOk());
+  }
+
+  private long countPayments() {
+    return paymentRepository.findAll().stream().filter(p -> p.getCurrency().equals("TXN")).count();
+  }
+}
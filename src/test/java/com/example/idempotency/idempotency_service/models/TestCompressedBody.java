@@ -0,0 +1,58 @@
+package com.example.idempotency.idempotency_service.models;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+
+class TestCompressedBody {
+
+  private static final byte[] PAYMENT =
+      ("{\"id\":\"" + UUID.randomUUID() + "\",\"amount\":40.0,\"currency\":\"SMS\"}")
+          .getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  void deflate_smallPayment_shrinksAndInflatesBack() {
+    byte[] compressed = CompressedBody.deflate(PAYMENT, 1);
+
+    assertTrue(compressed.length < PAYMENT.length);
+    assertArrayEquals(PAYMENT, CompressedBody.inflate(compressed));
+  }
+
+  @Test
+  void deflate_incompressibleBody_returnsNull() {
+    byte[] noise = new byte[256];
+    new Random(42).nextBytes(noise);
+
+    assertNull(CompressedBody.deflate(noise, 1));
+  }
+
+  @Test
+  void toResponseEntity_compressedModel_streamsOriginalBytes() throws Exception {
+    IdempotencyModel model =
+        IdempotencyModel.builder()
+            .requestHash(new RequestFingerprint(1, 1))
+            .status(200)
+            .body(CompressedBody.deflate(PAYMENT, 9))
+            .compressed(true)
+            .build();
+
+    Resource body = (Resource) model.toResponseEntity().getBody();
+    // Each stream is opened on demand, so the body can be written more than once
+    for (int i = 0; i < 2; i++) {
+      ByteArrayOutputStream written = new ByteArrayOutputStream();
+      try (InputStream in = body.getInputStream()) {
+        in.transferTo(written);
+      }
+      assertArrayEquals(PAYMENT, written.toByteArray());
+    }
+    assertArrayEquals(PAYMENT, model.readBody());
+  }
+}
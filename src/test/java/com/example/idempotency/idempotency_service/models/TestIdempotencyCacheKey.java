@@ -0,0 +1,80 @@
+package com.example.idempotency.idempotency_service.models;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class TestIdempotencyCacheKey {
+
+  private static final String ENDPOINT = "POST /api/payments";
+  private static final String PATCH = "PATCH /api/payments/{id}";
+
+  @Test
+  void of_canonicalUuid_isHeldAsUuidAndReadsBackUnchanged() {
+    String uuid = UUID.randomUUID().toString();
+    IdempotencyCacheKey key = IdempotencyCacheKey.of(ENDPOINT, uuid);
+
+    assertTrue(key.isUuid());
+    assertEquals(uuid, key.idempotencyKey());
+    assertEquals(ENDPOINT + ":" + uuid, key.toString());
+    assertEquals(IdempotencyCacheKey.of(ENDPOINT, uuid), key);
+    assertEquals(IdempotencyCacheKey.of(ENDPOINT, uuid).hashCode(), key.hashCode());
+  }
+
+  @Test
+  void of_nonCanonicalKey_isHeldAsText() {
+    String upper = UUID.randomUUID().toString().toUpperCase();
+
+    assertFalse(IdempotencyCacheKey.of(ENDPOINT, upper).isUuid());
+    assertEquals(upper, IdempotencyCacheKey.of(ENDPOINT, upper).idempotencyKey());
+    assertFalse(IdempotencyCacheKey.of(ENDPOINT, "order-42").isUuid());
+  }
+
+  @Test
+  void equals_tellsEndpointsAndKeysApart() {
+    String uuid = UUID.randomUUID().toString();
+
+    assertNotEquals(
+        IdempotencyCacheKey.of(ENDPOINT, uuid),
+        IdempotencyCacheKey.of("PATCH /api/payments", uuid));
+    assertNotEquals(
+        IdempotencyCacheKey.of(ENDPOINT, uuid),
+        IdempotencyCacheKey.of(ENDPOINT, UUID.randomUUID().toString()));
+    assertNotEquals(
+        IdempotencyCacheKey.of(ENDPOINT, uuid),
+        IdempotencyCacheKey.of(ENDPOINT, uuid.toUpperCase()));
+  }
+
+  @Test
+  void equals_tellsResourcesApart() {
+    String uuid = UUID.randomUUID().toString();
+    String payment = UUID.randomUUID().toString();
+
+    IdempotencyCacheKey key = IdempotencyCacheKey.of(PATCH, payment, uuid);
+    assertEquals(IdempotencyCacheKey.of(PATCH, payment, uuid), key);
+    assertEquals(PATCH + " " + payment + ":" + uuid, key.toString());
+    assertNotEquals(IdempotencyCacheKey.of(PATCH, UUID.randomUUID().toString(), uuid), key);
+    assertNotEquals(IdempotencyCacheKey.of(PATCH, uuid), key);
+    assertNotEquals(IdempotencyCacheKey.of(PATCH, payment.toUpperCase(), uuid), key);
+  }
+
+  @Test
+  void fromBytes_readsBackWhatToBytesWrote() {
+    for (String value : new String[] {UUID.randomUUID().toString(), "order-42", "clé-ünïcode"}) {
+      for (String resource : new String[] {null, UUID.randomUUID().toString(), "acct/42"}) {
+        IdempotencyCacheKey key = IdempotencyCacheKey.of(PATCH, resource, value);
+
+        IdempotencyCacheKey read = IdempotencyCacheKey.fromBytes(key.toBytes());
+
+        assertEquals(key, read);
+        assertEquals(key.hash64(), read.hash64());
+        assertEquals(resource, read.resource());
+        assertEquals(value, read.idempotencyKey());
+      }
+    }
+  }
+}
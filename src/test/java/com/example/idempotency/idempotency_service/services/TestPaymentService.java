@@ -2,12 +2,19 @@ package com.example.idempotency.idempotency_service.services;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
 
 import com.example.idempotency.idempotency_service.common.exceptions.IdempotancyException;
 import com.example.idempotency.idempotency_service.dtos.PaymentDto;
 import com.example.idempotency.idempotency_service.repositories.PaymentRepository;
 import java.math.BigDecimal;
+import java.util.UUID;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -43,4 +50,20 @@ public class TestPaymentService {
     assertEquals("Amount and Currency are required fields", ex.getMessage());
     verifyNoInteractions(paymentRepository);
   }
+
+  @Test
+  void partialUpdatePayment_whenNoRowUpdated_throwsWithoutReadingBack() {
+    UUID id = UUID.randomUUID();
+    when(paymentRepository.partialUpdate(eq(id), eq(BigDecimal.ONE), isNull(), any(), isNull()))
+        .thenReturn(0);
+
+    IdempotancyException ex =
+        assertThrows(
+            IdempotancyException.class,
+            () ->
+                paymentService.partialUpdatePayment(
+                    id.toString(), PaymentDto.builder().amount(BigDecimal.ONE).build()));
+    assertEquals("Payment not found", ex.getMessage());
+    verify(paymentRepository, never()).findById(any());
+  }
 }
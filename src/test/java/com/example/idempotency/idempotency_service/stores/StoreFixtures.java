@@ -0,0 +1,27 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.nio.charset.StandardCharsets;
+import org.springframework.http.HttpHeaders;
+
+/** Keys and stored responses shared by the store tests. */
+final class StoreFixtures {
+
+  private StoreFixtures() {}
+
+  static IdempotencyCacheKey key(String idempotencyKey) {
+    return IdempotencyCacheKey.of("POST /api/test", idempotencyKey);
+  }
+
+  /** A completed 200 response with a small body, equal to any other built for the same hash. */
+  static IdempotencyModel completed(RequestFingerprint requestHash) {
+    return IdempotencyModel.builder()
+        .requestHash(requestHash)
+        .status(200)
+        .headers(IdempotencyModel.encodeHeaders(new HttpHeaders()))
+        .body("body".getBytes(StandardCharsets.UTF_8))
+        .build();
+  }
+}
@@ -0,0 +1,32 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class TestIdempotencyStoreMetrics {
+
+  @Mock private IdempotencyStore store;
+
+  @Test
+  void scrape_readsStoreStatsOnceForEveryMeter() {
+    when(store.stats()).thenReturn(new IdempotencyStoreStats(5, 3, 2, 4, 10, 1024));
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    new IdempotencyStoreMetrics(store).bindTo(registry);
+
+    assertEquals(10, registry.get("idempotency.store.size").gauge().value());
+    assertEquals(1024, registry.get("idempotency.store.bytes").gauge().value());
+    assertEquals(2, registry.get("idempotency.store.evictions").functionCounter().count());
+    assertEquals(4, registry.get("idempotency.store.expirations").functionCounter().count());
+
+    verify(store, times(1)).stats();
+  }
+}
@@ -0,0 +1,133 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.completed;
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.key;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class TestInMemoryIdempotencyStore {
+
+  private static final Duration TTL = Duration.ofMinutes(10);
+
+  private final MutableClock clock = new MutableClock();
+  private InMemoryIdempotencyStore store;
+
+  @AfterEach
+  void tearDown() {
+    store.close();
+  }
+
+  @Test
+  void get_afterPut_returnsStoredModel() {
+    store = newStore(10, DataSize.ofMegabytes(1));
+    IdempotencyModel model = completed(new RequestFingerprint(1, 1));
+    store.put(key("key-1"), model, TTL);
+    assertEquals(model, store.get(key("key-1")));
+    assertNull(store.get(key("key-2")));
+    IdempotencyStoreStats stats = store.stats();
+    assertEquals(1, stats.hits());
+    assertEquals(1, stats.misses());
+  }
+
+  @Test
+  void put_whenSizeExceeded_evictsKeysThatWereNeverRetried() {
+    store = newStore(3, DataSize.ofMegabytes(1));
+    store.put(key("retried"), completed(new RequestFingerprint(2, 2)), TTL);
+    store.get(key("retried"));
+    store.put(key("once-1"), completed(new RequestFingerprint(1, 1)), TTL);
+    store.put(key("once-2"), completed(new RequestFingerprint(3, 3)), TTL);
+    store.put(key("once-3"), completed(new RequestFingerprint(4, 4)), TTL);
+
+    assertEquals(3, store.size());
+    assertNotNull(store.get(key("retried")));
+    assertNull(store.get(key("once-1")));
+    assertEquals(1, store.stats().evictions());
+  }
+
+  @Test
+  void put_whenWeightExceeded_evictsUntilWithinBudget() {
+    store = newStore(1_000, DataSize.ofBytes(1_000));
+    for (int i = 0; i < 20; i++) {
+      store.put(key("key-" + i), completed(new RequestFingerprint(i, i)), TTL);
+    }
+    IdempotencyStoreStats stats = store.stats();
+    assertTrue(stats.weight() <= 1_000);
+    assertTrue(stats.evictions() > 0);
+    assertNotNull(store.get(key("key-19")));
+  }
+
+  @Test
+  void get_afterTtl_treatsEntryAsMissing() {
+    store = newStore(10, DataSize.ofMegabytes(1));
+    store.put(key("short"), completed(new RequestFingerprint(6, 6)), Duration.ofSeconds(1));
+    store.put(key("long"), completed(new RequestFingerprint(7, 7)), TTL);
+    clock.advance(Duration.ofSeconds(2));
+
+    assertNull(store.get(key("short")));
+    assertNotNull(store.get(key("long")));
+    assertEquals(1, store.stats().expirations());
+  }
+
+  @Test
+  void expireEntries_purgesExpiredEntriesWithoutReads() {
+    store = newStore(10, DataSize.ofMegabytes(1));
+    store.put(key("short-1"), completed(new RequestFingerprint(1, 1)), Duration.ofSeconds(1));
+    store.put(key("short-2"), completed(new RequestFingerprint(3, 3)), Duration.ofSeconds(1));
+    store.put(key("long"), completed(new RequestFingerprint(7, 7)), TTL);
+    clock.advance(Duration.ofSeconds(2));
+
+    store.expireEntries();
+
+    assertEquals(1, store.size());
+    assertEquals(2, store.stats().expirations());
+  }
+
+  @Test
+  void close_withSnapshot_restoresLiveResponsesOnStartup(@TempDir Path directory) {
+    IdempotencyProperties.Memory properties = new IdempotencyProperties.Memory();
+    properties.setSnapshot(directory.resolve("snapshot.bin"));
+    store = new InMemoryIdempotencyStore(properties, clock);
+    IdempotencyModel response =
+        IdempotencyModel.builder()
+            .requestHash(new RequestFingerprint(1, 1))
+            .status(201)
+            .headers(new byte[] {0, 0})
+            .body("body".getBytes(StandardCharsets.UTF_8))
+            .build();
+    store.put(key("live"), response, TTL);
+    store.put(key("short"), response, Duration.ofSeconds(1));
+    store.putIfAbsent(key("pending"), IdempotencyModel.pending(new RequestFingerprint(2, 2)), TTL);
+    store.close();
+    clock.advance(Duration.ofSeconds(2));
+
+    store = new InMemoryIdempotencyStore(properties, clock);
+
+    assertEquals(response, store.get(key("live")));
+    assertNull(store.get(key("short")));
+    assertNull(store.get(key("pending")));
+    assertEquals(1, store.size());
+    clock.advance(TTL);
+    assertNull(store.get(key("live")));
+  }
+
+  private InMemoryIdempotencyStore newStore(long maximumSize, DataSize maximumWeight) {
+    IdempotencyProperties.Memory properties = new IdempotencyProperties.Memory();
+    properties.setMaximumSize(maximumSize);
+    properties.setMaximumWeight(maximumWeight);
+    properties.setExpiryInterval(Duration.ofHours(1));
+    return new InMemoryIdempotencyStore(properties, clock);
+  }
+}
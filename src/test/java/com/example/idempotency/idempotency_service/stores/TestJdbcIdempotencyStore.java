@@ -0,0 +1,154 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.completed;
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.key;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+class TestJdbcIdempotencyStore {
+
+  private static final Duration TTL = Duration.ofMinutes(10);
+
+  private EmbeddedDatabase database;
+  private JdbcIdempotencyStore store;
+
+  @BeforeEach
+  void setUp() {
+    database =
+        new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.H2)
+            .generateUniqueName(true)
+            .build();
+    IdempotencyProperties.Jdbc properties = new IdempotencyProperties.Jdbc();
+    properties.setPurgeInterval(Duration.ofHours(1));
+    store =
+        new JdbcIdempotencyStore(
+            new JdbcTemplate(database), new IdempotencyRecordCodec(), properties);
+  }
+
+  @AfterEach
+  void tearDown() {
+    store.close();
+    database.shutdown();
+  }
+
+  @Test
+  void put_thenGet_replaysSameBytes() {
+    byte[] body = "{\"amount\":12.5,\"currency\":\"GBP\"}".getBytes(StandardCharsets.UTF_8);
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.add("X-Trace", "abc");
+    store.put(
+        key("key-1"),
+        IdempotencyModel.builder()
+            .requestHash(new RequestFingerprint(1, 1))
+            .status(201)
+            .headers(IdempotencyModel.encodeHeaders(headers))
+            .body(body)
+            .build(),
+        TTL);
+
+    ResponseEntity<?> replay = store.get(key("key-1")).toResponseEntity();
+
+    assertEquals(HttpStatus.CREATED, replay.getStatusCode());
+    assertEquals(MediaType.APPLICATION_JSON, replay.getHeaders().getContentType());
+    assertEquals("abc", replay.getHeaders().getFirst("X-Trace"));
+    assertArrayEquals(body, (byte[]) replay.getBody());
+  }
+
+  @Test
+  void putIfAbsent_whenKeyReserved_returnsExistingReservation() {
+    assertNull(
+        store.putIfAbsent(
+            key("key-2"), IdempotencyModel.pending(new RequestFingerprint(2, 2)), TTL));
+
+    IdempotencyModel existing =
+        store.putIfAbsent(
+            key("key-2"), IdempotencyModel.pending(new RequestFingerprint(3, 3)), TTL);
+
+    assertNotNull(existing);
+    assertTrue(existing.isPending());
+    assertEquals(new RequestFingerprint(2, 2), existing.getRequestHash());
+  }
+
+  @Test
+  void putIfAbsent_whenExistingRecordExpired_reservesKey() {
+    store.put(key("key-3"), IdempotencyModel.pending(new RequestFingerprint(4, 4)), Duration.ZERO);
+
+    assertNull(
+        store.putIfAbsent(
+            key("key-3"), IdempotencyModel.pending(new RequestFingerprint(5, 5)), TTL));
+    assertEquals(new RequestFingerprint(5, 5), store.get(key("key-3")).getRequestHash());
+  }
+
+  @Test
+  void removePending_keepsCompletedRecords() {
+    store.putIfAbsent(key("pending"), IdempotencyModel.pending(new RequestFingerprint(6, 6)), TTL);
+    store.put(
+        key("done"),
+        IdempotencyModel.builder()
+            .requestHash(new RequestFingerprint(7, 7))
+            .status(200)
+            .headers(IdempotencyModel.encodeHeaders(new HttpHeaders()))
+            .build(),
+        TTL);
+
+    store.removePending(key("pending"));
+    store.removePending(key("done"));
+
+    assertNull(store.get(key("pending")));
+    assertNotNull(store.get(key("done")));
+  }
+
+  @Test
+  void purgeExpired_deletesExpiredRows() {
+    store.put(
+        key("expired"), IdempotencyModel.pending(new RequestFingerprint(8, 8)), Duration.ZERO);
+    store.put(key("live"), IdempotencyModel.pending(new RequestFingerprint(9, 9)), TTL);
+
+    store.purgeExpired();
+
+    IdempotencyStoreStats stats = store.stats();
+    assertEquals(1, stats.size());
+    assertEquals(1, stats.expirations());
+  }
+
+  @Test
+  void putAll_thenGetAll_returnsOnlyLiveKeys() {
+    store.put(key("old"), IdempotencyModel.pending(new RequestFingerprint(10, 10)), TTL);
+    IdempotencyModel first = completed(new RequestFingerprint(11, 11));
+    IdempotencyModel second = completed(new RequestFingerprint(12, 12));
+
+    store.putAll(Map.of(key("old"), first, key("new"), second), TTL);
+    store.put(key("expired"), completed(new RequestFingerprint(13, 13)), Duration.ZERO);
+    Map<IdempotencyCacheKey, IdempotencyModel> found =
+        store.getAll(List.of(key("old"), key("new"), key("expired"), key("none")));
+
+    assertEquals(2, found.size());
+    assertEquals(first.getRequestHash(), found.get(key("old")).getRequestHash());
+    assertEquals(second.getRequestHash(), found.get(key("new")).getRequestHash());
+  }
+}
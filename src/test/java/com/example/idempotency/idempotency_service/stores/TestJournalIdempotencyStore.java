@@ -0,0 +1,118 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.completed;
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.key;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class TestJournalIdempotencyStore {
+
+  private static final Duration TTL = Duration.ofMinutes(10);
+
+  @TempDir private Path directory;
+
+  private final MutableClock clock = new MutableClock();
+  private JournalIdempotencyStore store;
+
+  @AfterEach
+  void tearDown() {
+    store.close();
+  }
+
+  @Test
+  void reopen_rebuildsIndexFromJournal() {
+    store = newStore(DataSize.ofKilobytes(64));
+    IdempotencyModel completed = completed(new RequestFingerprint(1, 1));
+    store.put(key("completed"), completed, TTL);
+    store.putIfAbsent(
+        key("cancelled"), IdempotencyModel.pending(new RequestFingerprint(2, 2)), TTL);
+    store.removePending(key("cancelled"));
+    store.put(key("short"), completed(new RequestFingerprint(3, 3)), Duration.ofSeconds(1));
+    store.close();
+    clock.advance(Duration.ofSeconds(2));
+
+    store = newStore(DataSize.ofKilobytes(64));
+
+    assertEquals(completed, store.get(key("completed")));
+    assertNull(store.get(key("cancelled")));
+    assertNull(store.get(key("short")));
+    assertEquals(1, store.stats().size());
+  }
+
+  @Test
+  void putIfAbsent_liveRecord_returnsExisting() {
+    store = newStore(DataSize.ofKilobytes(64));
+    IdempotencyModel pending = IdempotencyModel.pending(new RequestFingerprint(1, 1));
+
+    assertNull(store.putIfAbsent(key("key"), pending, TTL));
+    assertEquals(
+        pending, store.putIfAbsent(key("key"), completed(new RequestFingerprint(2, 2)), TTL));
+  }
+
+  @Test
+  void reopen_ignoresTornTail() throws IOException {
+    store = newStore(DataSize.ofKilobytes(64));
+    IdempotencyModel first = completed(new RequestFingerprint(1, 1));
+    store.put(key("first"), first, TTL);
+    store.put(key("second"), completed(new RequestFingerprint(2, 2)), TTL);
+    store.close();
+    try (RandomAccessFile file = new RandomAccessFile(segments().getFirst().toFile(), "rw")) {
+      int firstLength = file.readInt();
+      file.seek(firstLength + 20);
+      file.writeByte(file.readByte() ^ 0xff);
+    }
+
+    store = newStore(DataSize.ofKilobytes(64));
+
+    assertEquals(first, store.get(key("first")));
+    assertNull(store.get(key("second")));
+  }
+
+  @Test
+  void purgeExpired_deletesSegmentsWhoseRecordsExpired() throws IOException {
+    store = newStore(DataSize.ofBytes(256));
+    for (int i = 0; i < 10; i++) {
+      store.put(key("short-" + i), completed(new RequestFingerprint(i, i)), Duration.ofSeconds(1));
+    }
+    store.put(key("long"), completed(new RequestFingerprint(7, 7)), TTL);
+    int before = segments().size();
+    clock.advance(Duration.ofSeconds(2));
+
+    store.purgeExpired();
+
+    assertTrue(segments().size() < before);
+    assertEquals(1, store.stats().size());
+    assertEquals(completed(new RequestFingerprint(7, 7)), store.get(key("long")));
+  }
+
+  private JournalIdempotencyStore newStore(DataSize segmentSize) {
+    IdempotencyProperties.Journal properties = new IdempotencyProperties.Journal();
+    properties.setDirectory(directory);
+    properties.setSegmentSize(segmentSize);
+    properties.setFsync(IdempotencyProperties.FsyncPolicy.SYNC);
+    properties.setPurgeInterval(Duration.ofHours(1));
+    return new JournalIdempotencyStore(new IdempotencyRecordCodec(), properties, clock);
+  }
+
+  private List<Path> segments() throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.sorted().toList();
+    }
+  }
+}
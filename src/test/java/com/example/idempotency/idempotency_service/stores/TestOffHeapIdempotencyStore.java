@@ -0,0 +1,130 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.completed;
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.key;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+class TestOffHeapIdempotencyStore {
+
+  private static final Duration TTL = Duration.ofMinutes(10);
+
+  private final MutableClock clock = new MutableClock();
+  private OffHeapIdempotencyStore store;
+
+  @AfterEach
+  void tearDown() {
+    store.close();
+  }
+
+  @Test
+  void get_afterPut_returnsStoredModel() {
+    store = newStore(DataSize.ofKilobytes(64), 1_000);
+    IdempotencyModel model = completed(new RequestFingerprint(1, 1));
+    store.put(key("key-1"), model, TTL);
+
+    assertEquals(model, store.get(key("key-1")));
+    assertNull(store.get(key("key-2")));
+    assertEquals(1, store.stats().hits());
+    assertEquals(1, store.stats().misses());
+  }
+
+  @Test
+  void putIfAbsent_liveRecord_returnsExistingAndRemovePendingOnlyDropsReservations() {
+    store = newStore(DataSize.ofKilobytes(64), 1_000);
+    IdempotencyModel pending = IdempotencyModel.pending(new RequestFingerprint(1, 1));
+
+    assertNull(store.putIfAbsent(key("key"), pending, TTL));
+    assertEquals(
+        pending, store.putIfAbsent(key("key"), completed(new RequestFingerprint(2, 2)), TTL));
+    store.removePending(key("key"));
+    assertNull(store.get(key("key")));
+
+    IdempotencyModel completed = completed(new RequestFingerprint(3, 3));
+    store.put(key("key"), completed, TTL);
+    store.removePending(key("key"));
+    assertEquals(completed, store.get(key("key")));
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  void put_whenSegmentsFull_evictsSegmentExpiringFirst() {
+    store = newStore(DataSize.ofBytes(512), 1_000);
+    for (int i = 0; i < 40; i++) {
+      store.put(key("key-" + i), completed(new RequestFingerprint(i, i)), TTL.plusSeconds(i));
+    }
+
+    assertTrue(store.stats().evictions() > 0);
+    assertTrue(store.stats().weight() <= 4 * 512);
+    assertNull(store.get(key("key-0")));
+    assertNotNull(store.get(key("key-39")));
+  }
+
+  @Test
+  void put_whenEntryBoundReached_evicts() {
+    store = newStore(DataSize.ofKilobytes(64), 10);
+    for (int i = 0; i < 25; i++) {
+      store.put(key("key-" + i), completed(new RequestFingerprint(i, i)), TTL);
+    }
+
+    assertTrue(store.size() <= 10);
+    assertNotNull(store.get(key("key-24")));
+  }
+
+  @Test
+  void compact_freesExpiredSegmentsAndKeepsLiveRecords() {
+    store = newStore(DataSize.ofBytes(512), 1_000);
+    for (int i = 0; i < 10; i++) {
+      store.put(key("short-" + i), completed(new RequestFingerprint(i, i)), Duration.ofSeconds(1));
+    }
+    store.put(key("long"), completed(new RequestFingerprint(7, 7)), TTL);
+    clock.advance(Duration.ofSeconds(2));
+
+    store.compact();
+
+    assertEquals(1, store.size());
+    assertEquals(10, store.stats().expirations());
+    assertNotNull(store.get(key("long")));
+    assertNull(store.get(key("short-0")));
+  }
+
+  @Test
+  void compact_relocatesLiveRecordsOutOfMostlyDeadSegments() {
+    store = newStore(DataSize.ofBytes(512), 1_000);
+    for (int i = 0; i < 6; i++) {
+      store.put(key("key-" + i), completed(new RequestFingerprint(i, i)), TTL);
+    }
+    // Overwriting leaves the first copies dead in the earlier segments
+    for (int i = 1; i < 6; i++) {
+      store.put(key("key-" + i), completed(new RequestFingerprint(i, i)), TTL);
+    }
+    long before = store.stats().weight();
+
+    store.compact();
+
+    assertEquals(6, store.size());
+    assertEquals(before, store.stats().weight());
+    for (int i = 0; i < 6; i++) {
+      assertEquals(completed(new RequestFingerprint(i, i)), store.get(key("key-" + i)));
+    }
+  }
+
+  private OffHeapIdempotencyStore newStore(DataSize segmentSize, long maximumEntries) {
+    IdempotencyProperties.OffHeap properties = new IdempotencyProperties.OffHeap();
+    properties.setSegmentSize(segmentSize);
+    properties.setSegmentCount(4);
+    properties.setMaximumEntries(maximumEntries);
+    properties.setCompactionInterval(Duration.ofHours(1));
+    return new OffHeapIdempotencyStore(new IdempotencyRecordCodec(), properties, clock);
+  }
+}
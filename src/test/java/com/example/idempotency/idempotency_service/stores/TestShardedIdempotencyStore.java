@@ -0,0 +1,104 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.completed;
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.key;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class TestShardedIdempotencyStore {
+
+  private static final Duration TTL = Duration.ofMinutes(10);
+
+  private final MutableClock clock = new MutableClock();
+  private ShardedIdempotencyStore store;
+
+  @AfterEach
+  void tearDown() {
+    store.close();
+  }
+
+  @Test
+  void shards_areRoundedUpToPowerOfTwo() {
+    store = newStore(1_000, 5);
+    assertEquals(8, store.segmentCount());
+  }
+
+  @Test
+  void stats_sumEverySegment() {
+    store = newStore(1_000, 4);
+    for (int i = 0; i < 100; i++) {
+      store.put(key("key-" + i), completed(new RequestFingerprint(i, i)), TTL);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(completed(new RequestFingerprint(i, i)), store.get(key("key-" + i)));
+    }
+    assertNull(store.get(key("missing")));
+
+    IdempotencyStoreStats stats = store.stats();
+    assertEquals(100, stats.size());
+    assertEquals(100, stats.hits());
+    assertEquals(1, stats.misses());
+  }
+
+  @Test
+  void put_keepsEachSegmentWithinItsShareOfTheBounds() {
+    store = newStore(64, 4);
+    for (int i = 0; i < 1_000; i++) {
+      store.put(key("key-" + i), completed(new RequestFingerprint(i, i)), TTL);
+    }
+    assertTrue(store.size() <= 64);
+    assertEquals(1_000 - store.size(), store.stats().evictions());
+  }
+
+  @Test
+  void expireEntries_sweepsEverySegment() {
+    store = newStore(1_000, 4);
+    for (int i = 0; i < 100; i++) {
+      store.putIfAbsent(
+          key("key-" + i), IdempotencyModel.pending(new RequestFingerprint(i, i)), TTL);
+    }
+    clock.advance(TTL);
+
+    store.expireEntries();
+
+    assertEquals(0, store.size());
+    assertEquals(100, store.stats().expirations());
+  }
+
+  @Test
+  void close_withSnapshot_restoresEntriesIntoTheirSegments(@TempDir Path directory) {
+    IdempotencyProperties.Memory properties =
+        new IdempotencyProperties.Memory(
+            1_000, DataSize.ofMegabytes(1), Duration.ofHours(1), 4, directory.resolve("snap"));
+    store = new ShardedIdempotencyStore(properties, clock);
+    for (int i = 0; i < 100; i++) {
+      store.put(key("key-" + i), completed(new RequestFingerprint(i, i)), TTL);
+    }
+    store.close();
+
+    store = new ShardedIdempotencyStore(properties, clock);
+
+    assertEquals(100, store.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(completed(new RequestFingerprint(i, i)), store.get(key("key-" + i)));
+    }
+  }
+
+  private ShardedIdempotencyStore newStore(long maximumSize, int shards) {
+    return new ShardedIdempotencyStore(
+        new IdempotencyProperties.Memory(
+            maximumSize, DataSize.ofMegabytes(1), Duration.ofHours(1), shards, null),
+        clock);
+  }
+}
@@ -0,0 +1,77 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TestTimingWheel {
+
+  private static final long TICK = 1_000;
+
+  @Test
+  void advance_handsOutEachEntryOnTheFirstAdvancePastItsExpiry() {
+    TimingWheel<Entry> wheel = new TimingWheel<>(Duration.ofMillis(TICK), 0);
+    Random random = new Random(42);
+    List<Entry> entries = new ArrayList<>();
+    for (int i = 0; i < 10_000; i++) {
+      // Up to ten days, so every level of the wheel is used
+      Entry entry = new Entry(random.nextLong(10L * 24 * 3600 * TICK));
+      entries.add(entry);
+      wheel.schedule(entry);
+    }
+    List<Entry> expired = new ArrayList<>();
+
+    for (long now = TICK; expired.size() < entries.size(); now += TICK) {
+      long at = now;
+      wheel.advance(
+          now,
+          entry -> {
+            assertTrue(entry.expiresAt <= at);
+            assertTrue(entry.expiresAt > at - TICK, "handed out late");
+            expired.add(entry);
+          });
+    }
+
+    assertEquals(entries.size(), expired.size());
+  }
+
+  @Test
+  void cancel_removesEntryFromItsBucket() {
+    TimingWheel<Entry> wheel = new TimingWheel<>(Duration.ofMillis(TICK), 0);
+    Entry kept = new Entry(5 * TICK);
+    Entry cancelled = new Entry(5 * TICK);
+    wheel.schedule(kept);
+    wheel.schedule(cancelled);
+
+    wheel.cancel(cancelled);
+    wheel.cancel(cancelled);
+    List<Entry> expired = new ArrayList<>();
+    wheel.advance(10 * TICK, expired::add);
+
+    assertEquals(List.of(kept), expired);
+  }
+
+  @Test
+  void schedule_alreadyExpired_handsOutOnNextTick() {
+    TimingWheel<Entry> wheel = new TimingWheel<>(Duration.ofMillis(TICK), 100 * TICK);
+    Entry entry = new Entry(TICK);
+    wheel.schedule(entry);
+    List<Entry> expired = new ArrayList<>();
+
+    wheel.advance(101 * TICK, expired::add);
+
+    assertEquals(List.of(entry), expired);
+  }
+
+  private static final class Entry extends TimingWheel.Timer {
+
+    Entry(long expiresAt) {
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.completed;
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.key;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyCacheKey;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class TestTwoTierIdempotencyStore {
+
+  private static final Duration TTL = Duration.ofHours(1);
+
+  @Mock private IdempotencyStore backing;
+
+  private TwoTierIdempotencyStore store;
+
+  @BeforeEach
+  void setUp() {
+    IdempotencyProperties.NearCache properties = new IdempotencyProperties.NearCache();
+    properties.setNegativeTtl(Duration.ofMinutes(1));
+    properties.setExpectedKeys(1_000);
+    store = new TwoTierIdempotencyStore(backing, properties);
+  }
+
+  @AfterEach
+  void tearDown() {
+    store.close();
+  }
+
+  @Test
+  void putIfAbsent_firstTimeKey_skipsRemoteLookup() {
+    assertNull(
+        store.putIfAbsent(
+            key("new-key"), IdempotencyModel.pending(new RequestFingerprint(1, 1)), TTL));
+
+    verify(backing).putIfAbsent(any(IdempotencyCacheKey.class), any(), any());
+    verify(backing, never()).get(any(IdempotencyCacheKey.class));
+  }
+
+  @Test
+  void get_afterPut_isServedLocally() {
+    IdempotencyModel model = completed(new RequestFingerprint(1, 1));
+    store.put(key("hot-key"), model, TTL);
+
+    assertEquals(model, store.get(key("hot-key")));
+    assertEquals(
+        model,
+        store.putIfAbsent(
+            key("hot-key"), IdempotencyModel.pending(new RequestFingerprint(1, 1)), TTL));
+
+    verify(backing).put(key("hot-key"), model, TTL);
+    verify(backing, never()).get(any(IdempotencyCacheKey.class));
+    verify(backing, never()).putIfAbsent(any(IdempotencyCacheKey.class), any(), any());
+  }
+
+  @Test
+  void get_remoteMiss_isCachedNegatively() {
+    assertNull(store.get(key("missing-key")));
+    assertNull(store.get(key("missing-key")));
+
+    verify(backing, times(1)).get(key("missing-key"));
+  }
+
+  @Test
+  void putIfAbsent_keyReservedElsewhere_returnsRemoteReservation() {
+    IdempotencyModel remote = IdempotencyModel.pending(new RequestFingerprint(2, 2));
+    when(backing.putIfAbsent(any(IdempotencyCacheKey.class), any(), any())).thenReturn(remote);
+
+    assertEquals(
+        remote,
+        store.putIfAbsent(
+            key("busy-key"), IdempotencyModel.pending(new RequestFingerprint(3, 3)), TTL));
+    // Pending reservations are never served from the local tier
+    when(backing.get(key("busy-key"))).thenReturn(null);
+    assertNull(store.get(key("busy-key")));
+    verify(backing).get(key("busy-key"));
+  }
+}
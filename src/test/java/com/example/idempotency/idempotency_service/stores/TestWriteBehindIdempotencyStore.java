@@ -0,0 +1,98 @@
+package com.example.idempotency.idempotency_service.stores;
+
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.completed;
+import static com.example.idempotency.idempotency_service.stores.StoreFixtures.key;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.example.idempotency.idempotency_service.common.IdempotencyProperties;
+import com.example.idempotency.idempotency_service.models.IdempotencyModel;
+import com.example.idempotency.idempotency_service.models.RequestFingerprint;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TestWriteBehindIdempotencyStore {
+
+  private static final Duration TTL = Duration.ofMinutes(10);
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private InMemoryIdempotencyStore backing;
+  private WriteBehindIdempotencyStore store;
+
+  @BeforeEach
+  void setUp() {
+    backing = new InMemoryIdempotencyStore(new IdempotencyProperties.Memory());
+  }
+
+  @AfterEach
+  void tearDown() {
+    store.close();
+  }
+
+  @Test
+  void put_servesQueuedRecordUntilFlushed() {
+    store = newStore(10);
+    IdempotencyModel model = completed(new RequestFingerprint(1, 1));
+
+    store.put(key("key"), model, TTL);
+
+    assertNull(backing.get(key("key")));
+    assertEquals(model, store.get(key("key")));
+    assertEquals(
+        model,
+        store.putIfAbsent(key("key"), IdempotencyModel.pending(model.getRequestHash()), TTL));
+    assertEquals(1, meterRegistry.get("idempotency.store.write_behind.queue").gauge().value());
+
+    store.flush();
+
+    assertEquals(model, backing.get(key("key")));
+    assertEquals(0, store.queued());
+  }
+
+  @Test
+  void put_sameKeyTwice_writesLatestOnce() {
+    store = newStore(10);
+    IdempotencyModel latest = completed(new RequestFingerprint(3, 3));
+
+    store.put(key("key"), completed(new RequestFingerprint(2, 2)), TTL);
+    store.put(key("key"), latest, TTL);
+
+    assertEquals(1, store.queued());
+    store.flush();
+    assertEquals(latest, backing.get(key("key")));
+  }
+
+  @Test
+  void put_whenQueueFull_writesThrough() {
+    store = newStore(1);
+    store.put(key("queued"), completed(new RequestFingerprint(4, 4)), TTL);
+
+    store.put(key("direct"), completed(new RequestFingerprint(5, 5)), TTL);
+
+    assertNull(backing.get(key("queued")));
+    assertEquals(completed(new RequestFingerprint(5, 5)), backing.get(key("direct")));
+    assertEquals(
+        1, meterRegistry.get("idempotency.store.write_behind.write_throughs").counter().count());
+  }
+
+  @Test
+  void close_drainsQueue() {
+    store = newStore(10);
+    store.put(key("key"), completed(new RequestFingerprint(6, 6)), TTL);
+
+    store.close();
+
+    assertEquals(completed(new RequestFingerprint(6, 6)), backing.get(key("key")));
+  }
+
+  private WriteBehindIdempotencyStore newStore(int capacity) {
+    IdempotencyProperties.WriteBehind properties = new IdempotencyProperties.WriteBehind();
+    properties.setCapacity(capacity);
+    // Flushed by the tests themselves
+    properties.setMaxFlushDelay(Duration.ofHours(1));
+    return new WriteBehindIdempotencyStore(backing, properties, meterRegistry);
+  }
+}